@@ -3,15 +3,29 @@
 package org.web2book;
 
 import org.web2book.core.BookJob;
+import org.web2book.core.ImageStore;
+import org.web2book.net.DownloadEngine;
 import org.web2book.net.HttpClientService;
+import org.web2book.pdf.PdfFontRegistry;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -61,41 +75,162 @@ public class Web2BookApp {
         
         // Create shared HTTP client service
         Logger consoleLogger = Logger.getLogger("web2book.console");
-        HttpClientService httpClientService = new HttpClientService(consoleLogger);
+        HttpClientService httpClientService = new HttpClientService(consoleLogger, globalProps);
         
-        // Process each book sequentially
-        int successCount = 0;
-        int failureCount = 0;
+        // Create shared download engine (one per process, virtual threads with per-host limits)
+        DownloadEngine downloadEngine = new DownloadEngine(globalProps, consoleLogger);
         
-        for (Path bookConfigPath : bookConfigPaths) {
-            System.out.println("\nProcessing book: " + bookConfigPath);
-            
-            if (!bookConfigPath.toFile().exists()) {
-                System.err.println("ERROR: Book config file not found: " + bookConfigPath.toAbsolutePath());
-                failureCount++;
-                continue;
-            }
-            
-            try {
-                BookJob bookJob = new BookJob(bookConfigPath, globalProps, httpClientService);
-                bookJob.run();
-                successCount++;
-                System.out.println("Completed: " + bookConfigPath);
-            } catch (Exception e) {
-                System.err.println("ERROR: Failed to process " + bookConfigPath + ": " + e.getMessage());
-                e.printStackTrace();
-                failureCount++;
+        // Create shared image store (each image is downloaded and stored once across chapters and books)
+        ImageStore imageStore = ImageStore.fromProperties(globalProps, consoleLogger);
+        
+        // Initialize the shared PDF fonts once, before any book (and volume builder thread) uses them
+        PdfFontRegistry.initialize(consoleLogger);
+        
+        // Process books sequentially, or several at once if parallel.books > 1
+        AtomicInteger successCount = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        int maxParallelBooks = parsePositiveInt(globalProps.getProperty("parallel.books"), 1);
+        int maxParallelBooksPerHost = parsePositiveInt(globalProps.getProperty("parallel.books.per.host"), 1);
+        
+        if (maxParallelBooks <= 1 || bookConfigPaths.size() <= 1) {
+            for (Path bookConfigPath : bookConfigPaths) {
+                if (runBook(bookConfigPath, globalProps, httpClientService, downloadEngine, imageStore)) {
+                    successCount.incrementAndGet();
+                } else {
+                    failureCount.incrementAndGet();
+                }
             }
+        } else {
+            System.out.println("Running up to " + maxParallelBooks + " books in parallel (max " + 
+                maxParallelBooksPerHost + " per host)");
+            runBooksInParallel(bookConfigPaths, globalProps, httpClientService, downloadEngine, imageStore,
+                maxParallelBooks, maxParallelBooksPerHost, successCount, failureCount);
+        }
+        
+        downloadEngine.close();
+        httpClientService.close();
+        httpClientService.logConnectionStats();
+        if (imageStore != null) {
+            imageStore.logStats();
         }
         
         // Print summary
         System.out.println("\n===================================");
         System.out.println("Processing Summary:");
-        System.out.println("  Success: " + successCount);
-        System.out.println("  Failed:  " + failureCount);
+        System.out.println("  Success: " + successCount.get());
+        System.out.println("  Failed:  " + failureCount.get());
         System.out.println("===================================");
     }
 
+    /**
+     * Runs one book job.
+     * 
+     * @return true if the job completed, false if the config is missing or the job failed
+     */
+    private static boolean runBook(Path bookConfigPath, Properties globalProps,
+            HttpClientService httpClientService, DownloadEngine downloadEngine, ImageStore imageStore) {
+        System.out.println("\nProcessing book: " + bookConfigPath);
+        
+        if (!bookConfigPath.toFile().exists()) {
+            System.err.println("ERROR: Book config file not found: " + bookConfigPath.toAbsolutePath());
+            return false;
+        }
+        
+        try {
+            BookJob bookJob = new BookJob(bookConfigPath, globalProps, httpClientService, downloadEngine, imageStore);
+            bookJob.run();
+            System.out.println("Completed: " + bookConfigPath);
+            return true;
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to process " + bookConfigPath + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Runs several book jobs at once on a pool of maxParallelBooks workers.
+     * A book only starts when its host runs fewer than maxPerHost books, so books
+     * from different sites never wait on each other while a site is never hit by
+     * more jobs than allowed.
+     */
+    private static void runBooksInParallel(List<Path> bookConfigPaths, Properties globalProps,
+            HttpClientService httpClientService, DownloadEngine downloadEngine, ImageStore imageStore,
+            int maxParallelBooks, int maxPerHost, AtomicInteger successCount, AtomicInteger failureCount) {
+        ExecutorService workers = Executors.newFixedThreadPool(maxParallelBooks);
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(workers);
+        List<Path> pending = new ArrayList<>(bookConfigPaths);
+        Map<Future<Boolean>, String> runningHosts = new HashMap<>();
+        Map<String, Integer> runningPerHost = new HashMap<>();
+        
+        try {
+            while (!pending.isEmpty() || !runningHosts.isEmpty()) {
+                // Start every pending book whose host still has capacity
+                Iterator<Path> iterator = pending.iterator();
+                while (iterator.hasNext() && runningHosts.size() < maxParallelBooks) {
+                    Path bookConfigPath = iterator.next();
+                    String host = readBookHost(bookConfigPath);
+                    if (runningPerHost.getOrDefault(host, 0) >= maxPerHost) {
+                        continue;
+                    }
+                    iterator.remove();
+                    runningPerHost.merge(host, 1, Integer::sum);
+                    Future<Boolean> future = completionService.submit(
+                        () -> runBook(bookConfigPath, globalProps, httpClientService, downloadEngine, imageStore));
+                    runningHosts.put(future, host);
+                }
+                
+                // Wait for one book to finish, which frees a worker and a slot for its host
+                Future<Boolean> finished = completionService.take();
+                String host = runningHosts.remove(finished);
+                runningPerHost.merge(host, -1, Integer::sum);
+                try {
+                    if (finished.get()) {
+                        successCount.incrementAndGet();
+                    } else {
+                        failureCount.incrementAndGet();
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("ERROR: Book job failed: " + e.getCause());
+                    failureCount.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("ERROR: Interrupted while waiting for book jobs");
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the host of a book's starting.url, used to apply parallel.books.per.host.
+     * 
+     * @return The lowercase host, or an empty string if it cannot be determined
+     */
+    private static String readBookHost(Path bookConfigPath) {
+        Properties bookProps = new Properties();
+        try (FileInputStream fis = new FileInputStream(bookConfigPath.toFile())) {
+            bookProps.load(fis);
+            String host = URI.create(bookProps.getProperty("starting.url", "").trim()).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private static int parsePositiveInt(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     private static Properties loadGlobalConfig() {
         Path configFile = Paths.get(GLOBAL_CONFIG_FILE);
         
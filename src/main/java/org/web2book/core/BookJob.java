@@ -3,17 +3,20 @@
 package org.web2book.core;
 
 import org.web2book.epub.EpubBuilderService;
+import org.web2book.epub.ExistingEpub;
 import org.web2book.pdf.PdfBuilderService;
 import org.web2book.html.HtmlExtractor;
 import org.web2book.log.LoggerFactory;
 import org.web2book.model.ChapterContent;
 import org.web2book.model.ChapterInfo;
+import org.web2book.net.DownloadEngine;
+import org.web2book.net.HostRateLimiter;
 import org.web2book.net.HttpClientService;
+import org.web2book.net.RequestContext;
+import org.web2book.util.ImageDimensions;
 import org.web2book.util.TemplateEngine;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
@@ -42,17 +45,34 @@ public class BookJob {
     private final Path bookConfigPath;
     private final Properties globalProps;
     private final HttpClientService httpClientService;
+    private final DownloadEngine downloadEngine;
+    private final ImageStore imageStore; // Shared content-addressed image store (null when disabled)
     
     private Properties bookProps;
     private Path outputDir;
     private Path logDir;
     private Path tempDir;
     private long thinkingTimeMs;
+    private boolean htmlRateLimited; // Chapter pages paced by the rate limiter of their host (no thinking time)
     private String outputFormat;
     private Logger logger;
+    private RequestContext requestContext;
     private String bookTitle;
     private int maxConcurrentImageDownloads;
+    private Semaphore imageDownloadPermits; // Caps this book's in-flight images (max.concurrent.image.downloads)
     private boolean regenerateExistingBooks;
+    private boolean pipelinePrefetch;
+    private boolean pipelineVolumes; // Generate volume N on a builder thread while volume N+1 downloads
+    private long imageRetryDelayMs; // Delay before the first deferred retry of a failed image
+    private int imageRetryAttempts; // Number of deferred retries before an image is given up
+    private long pdfMemoryLimitMb; // Main memory for PDF content, the rest goes to a scratch file in tempDir
+    private int pdfPrepareThreads; // Threads loading and encoding the images of upcoming chapters
+    private boolean pdfFragmentCache; // Render each chapter once into tempDir/pdf-fragments, assemble volumes from them
+    private ImageProfileResizer.Profile outputProfile; // Device profile images are resized for (null = as downloaded)
+    private boolean epubStreaming; // Write EPUB chapters and images from disk at save time (epub.writer=stream)
+    private int epubThreads; // Threads compressing the entries of a streamed EPUB
+    private boolean epubAppend; // Append new chapters to the EPUB of an earlier run (single-volume books)
+    private boolean epubFixedLayout; // EPUB 3 fixed layout, one page per image (epub.layout=fixed)
     
     // Track incomplete books with their failed image URLs
     private static class IncompleteBook {
@@ -67,12 +87,15 @@ public class BookJob {
         }
     }
     
-    private final List<IncompleteBook> incompleteBooks = new ArrayList<>();
+    private final List<IncompleteBook> incompleteBooks = Collections.synchronizedList(new ArrayList<>());
 
-    public BookJob(Path bookConfigPath, Properties globalProps, HttpClientService httpClientService) {
+    public BookJob(Path bookConfigPath, Properties globalProps, HttpClientService httpClientService,
+            DownloadEngine downloadEngine, ImageStore imageStore) {
         this.bookConfigPath = bookConfigPath;
         this.globalProps = globalProps;
         this.httpClientService = httpClientService;
+        this.downloadEngine = downloadEngine;
+        this.imageStore = imageStore;
     }
 
     /**
@@ -88,8 +111,8 @@ public class BookJob {
                 return;
             }
             
-            // Resolve output directory and thinking time
-            resolveConfiguration();
+            // Resolve output, log and temp directories
+            resolveDirectories();
             
             // Build book title
             bookTitle = TemplateEngine.applyBookTitleTemplate(
@@ -108,29 +131,28 @@ public class BookJob {
             String loggerName = "web2book." + LoggerFactory.sanitizeFilename(bookTitle);
             logger = LoggerFactory.createFileLogger(loggerName, logDir, bookTitle, globalProps);
             
+            // Resolve the remaining settings (unknown values are logged and replaced by defaults)
+            resolveConfiguration();
+            
             logger.info("Starting book processing: " + bookTitle);
             logger.info("Config file: " + bookConfigPath.toAbsolutePath());
             
             // Fetch starting page
             String startingUrl = bookProps.getProperty("starting.url");
-            logger.info("Fetching starting page: " + startingUrl);
             
-            // Set referer URL (use starting URL or site root)
-            String baseUrl = bookProps.getProperty("chapter.base.url");
-            if (baseUrl != null) {
-                httpClientService.setRefererUrl(baseUrl);
-            } else {
-                // Extract root from starting URL
-                try {
-                    URL url = new URL(startingUrl);
-                    String rootUrl = url.getProtocol() + "://" + url.getHost();
-                    httpClientService.setRefererUrl(rootUrl);
-                } catch (Exception e) {
-                    httpClientService.setRefererUrl(startingUrl);
-                }
+            // Thinking time is only replaced by the rate limiter for hosts that have an HTML rate:
+            // the host of the starting page and the host of the chapter pages
+            htmlRateLimited = httpClientService.isRateLimited(startingUrl, HostRateLimiter.RequestKind.HTML) &&
+                httpClientService.isRateLimited(bookProps.getProperty("chapter.base.url"), HostRateLimiter.RequestKind.HTML);
+            if (htmlRateLimited) {
+                logger.info("HTML requests are paced by the per-host rate limiter, thinking.time.ms is not applied");
             }
+            logger.info("Fetching starting page: " + startingUrl);
             
-            String startingPageHtml = httpClientService.getHtml(startingUrl);
+            // Request context of this job (Referer: chapter base URL or site root)
+            requestContext = RequestContext.forSite(bookProps.getProperty("chapter.base.url"), startingUrl);
+            
+            String startingPageHtml = httpClientService.getHtml(startingUrl, requestContext);
             
             if (startingPageHtml == null) {
                 String errorMsg = "Failed to fetch starting page. Aborting book processing.";
@@ -278,7 +300,10 @@ public class BookJob {
         return true;
     }
 
-    private void resolveConfiguration() {
+    /**
+     * Resolves the output, log and temp directories, which are needed before the book logger exists.
+     */
+    private void resolveDirectories() {
         // Resolve output directory
         String bookOutputDir = bookProps.getProperty("output.dir");
         if (bookOutputDir != null && !bookOutputDir.trim().isEmpty()) {
@@ -288,29 +313,6 @@ public class BookJob {
             outputDir = Paths.get(defaultOutputDir);
         }
         
-        // Resolve thinking time
-        String bookThinkingTime = bookProps.getProperty("thinking.time.ms");
-        if (bookThinkingTime != null && !bookThinkingTime.trim().isEmpty()) {
-            try {
-                thinkingTimeMs = Long.parseLong(bookThinkingTime.trim());
-            } catch (NumberFormatException e) {
-                thinkingTimeMs = Long.parseLong(globalProps.getProperty("default.thinking.time.ms", "1500"));
-            }
-        } else {
-            thinkingTimeMs = Long.parseLong(globalProps.getProperty("default.thinking.time.ms", "1500"));
-        }
-        
-        // Resolve output format
-        String bookOutputFormat = bookProps.getProperty("output.format");
-        if (bookOutputFormat != null && !bookOutputFormat.trim().isEmpty()) {
-            outputFormat = bookOutputFormat.trim().toLowerCase();
-            if (!outputFormat.equals("epub") && !outputFormat.equals("pdf")) {
-                outputFormat = globalProps.getProperty("default.output.format", "pdf").toLowerCase();
-            }
-        } else {
-            outputFormat = globalProps.getProperty("default.output.format", "pdf").toLowerCase();
-        }
-        
         // Resolve log directory
         String bookLogDir = bookProps.getProperty("log.dir");
         if (bookLogDir != null && !bookLogDir.trim().isEmpty()) {
@@ -333,6 +335,35 @@ public class BookJob {
             String defaultTempDir = globalProps.getProperty("default.temp.dir", "tmp");
             tempDir = Paths.get(defaultTempDir);
         }
+    }
+
+    /**
+     * Resolves the remaining book settings. Runs once the book logger exists, so that settings
+     * falling back to a default can log a warning.
+     */
+    private void resolveConfiguration() {
+        // Resolve thinking time
+        String bookThinkingTime = bookProps.getProperty("thinking.time.ms");
+        if (bookThinkingTime != null && !bookThinkingTime.trim().isEmpty()) {
+            try {
+                thinkingTimeMs = Long.parseLong(bookThinkingTime.trim());
+            } catch (NumberFormatException e) {
+                thinkingTimeMs = Long.parseLong(globalProps.getProperty("default.thinking.time.ms", "1500"));
+            }
+        } else {
+            thinkingTimeMs = Long.parseLong(globalProps.getProperty("default.thinking.time.ms", "1500"));
+        }
+        
+        // Resolve output format
+        String bookOutputFormat = bookProps.getProperty("output.format");
+        if (bookOutputFormat != null && !bookOutputFormat.trim().isEmpty()) {
+            outputFormat = bookOutputFormat.trim().toLowerCase();
+            if (!outputFormat.equals("epub") && !outputFormat.equals("pdf")) {
+                outputFormat = globalProps.getProperty("default.output.format", "pdf").toLowerCase();
+            }
+        } else {
+            outputFormat = globalProps.getProperty("default.output.format", "pdf").toLowerCase();
+        }
         
         // Resolve max concurrent image downloads
         String bookMaxConcurrent = bookProps.getProperty("max.concurrent.image.downloads");
@@ -384,6 +415,8 @@ public class BookJob {
             }
         }
         
+        imageDownloadPermits = new Semaphore(maxConcurrentImageDownloads, true);
+        
         // Resolve regenerate existing books setting
         String bookRegenerate = bookProps.getProperty("regenerate.existing.books");
         if (bookRegenerate != null && !bookRegenerate.trim().isEmpty()) {
@@ -392,6 +425,165 @@ public class BookJob {
             String defaultRegenerate = globalProps.getProperty("default.regenerate.existing.books", "false");
             regenerateExistingBooks = "true".equalsIgnoreCase(defaultRegenerate.trim());
         }
+        
+        // Resolve pipelined chapter processing (prefetch next chapter page while images download)
+        String bookPipeline = bookProps.getProperty("pipeline.prefetch");
+        if (bookPipeline != null && !bookPipeline.trim().isEmpty()) {
+            pipelinePrefetch = "true".equalsIgnoreCase(bookPipeline.trim());
+        } else {
+            String defaultPipeline = globalProps.getProperty("default.pipeline.prefetch", "false");
+            pipelinePrefetch = "true".equalsIgnoreCase(defaultPipeline.trim());
+        }
+        
+        // Resolve volume pipeline (book generation overlaps with the next volume's downloads)
+        String bookPipelineVolumes = bookProps.getProperty("pipeline.volumes");
+        if (bookPipelineVolumes != null && !bookPipelineVolumes.trim().isEmpty()) {
+            pipelineVolumes = "true".equalsIgnoreCase(bookPipelineVolumes.trim());
+        } else {
+            String defaultPipelineVolumes = globalProps.getProperty("default.pipeline.volumes", "true");
+            pipelineVolumes = "true".equalsIgnoreCase(defaultPipelineVolumes.trim());
+        }
+        
+        // Resolve deferred image retries (failed images are retried in the background with backoff)
+        imageRetryDelayMs = resolveLong("image.retry.delay.ms", "default.image.retry.delay.ms", 60000);
+        imageRetryAttempts = (int) resolveLong("image.retry.attempts", "default.image.retry.attempts", 3);
+        
+        // Resolve PDF memory limit (bounded-memory PDF assembly with a scratch file)
+        pdfMemoryLimitMb = resolveLong("pdf.memory.limit.mb", "default.pdf.memory.limit.mb", 64);
+        
+        // Resolve PDF image preparation threads (0 falls back to the number of processors)
+        pdfPrepareThreads = (int) resolveLong("pdf.prepare.threads", "default.pdf.prepare.threads", 0);
+        if (pdfPrepareThreads <= 0) {
+            pdfPrepareThreads = Runtime.getRuntime().availableProcessors();
+        }
+        
+        // Resolve PDF chapter fragment cache (volumes assembled from chapters rendered once)
+        String bookFragmentCache = bookProps.getProperty("pdf.fragment.cache");
+        if (bookFragmentCache != null && !bookFragmentCache.trim().isEmpty()) {
+            pdfFragmentCache = "true".equalsIgnoreCase(bookFragmentCache.trim());
+        } else {
+            String defaultFragmentCache = globalProps.getProperty("default.pdf.fragment.cache", "false");
+            pdfFragmentCache = "true".equalsIgnoreCase(defaultFragmentCache.trim());
+        }
+        
+        // Resolve output profile (images resized for the target device)
+        String profileName = bookProps.getProperty("output.profile");
+        if (profileName == null || profileName.trim().isEmpty()) {
+            profileName = globalProps.getProperty("default.output.profile", "original");
+        }
+        outputProfile = ImageProfileResizer.forName(profileName, logger);
+        
+        // Resolve EPUB writer (stream = files copied from disk at save time, epublib = book built in memory)
+        String epubWriter = bookProps.getProperty("epub.writer");
+        if (epubWriter == null || epubWriter.trim().isEmpty()) {
+            epubWriter = globalProps.getProperty("default.epub.writer", "stream");
+        }
+        epubWriter = epubWriter.trim().toLowerCase();
+        if (!epubWriter.equals("stream") && !epubWriter.equals("epublib")) {
+            logger.warning("Unknown EPUB writer '" + epubWriter + "', using stream");
+            epubWriter = "stream";
+        }
+        epubStreaming = epubWriter.equals("stream");
+        
+        // Resolve EPUB compression threads (0 falls back to the number of processors)
+        epubThreads = (int) resolveLong("epub.threads", "default.epub.threads", 0);
+        if (epubThreads <= 0) {
+            epubThreads = Runtime.getRuntime().availableProcessors();
+        }
+        
+        // Resolve EPUB append mode (only new chapters are downloaded and added to the existing EPUB)
+        String bookEpubAppend = bookProps.getProperty("epub.append");
+        if (bookEpubAppend != null && !bookEpubAppend.trim().isEmpty()) {
+            epubAppend = "true".equalsIgnoreCase(bookEpubAppend.trim());
+        } else {
+            String defaultEpubAppend = globalProps.getProperty("default.epub.append", "false");
+            epubAppend = "true".equalsIgnoreCase(defaultEpubAppend.trim());
+        }
+        
+        // Resolve EPUB layout (reflowable chapters, or fixed layout with one page per image)
+        String epubLayout = bookProps.getProperty("epub.layout");
+        if (epubLayout == null || epubLayout.trim().isEmpty()) {
+            epubLayout = globalProps.getProperty("default.epub.layout", "reflowable");
+        }
+        epubLayout = epubLayout.trim().toLowerCase();
+        if (!epubLayout.equals("reflowable") && !epubLayout.equals("fixed")) {
+            logger.warning("Unknown EPUB layout '" + epubLayout + "', using reflowable");
+            epubLayout = "reflowable";
+        }
+        epubFixedLayout = epubLayout.equals("fixed");
+        if (epubFixedLayout && !epubStreaming) {
+            logger.warning("epub.layout=fixed needs epub.writer=stream, using reflowable");
+            epubFixedLayout = false;
+        }
+    }
+    
+    /**
+     * Resizes the chapter images for the output profile, if one is configured.
+     * Resized images are cached in tempDir/profiles/&lt;profile&gt;/ and reused by later runs.
+     * 
+     * @param chapters The processed chapters
+     * @return The chapters with the images to put in the book
+     */
+    private List<ChapterContent> applyOutputProfile(List<ChapterContent> chapters) {
+        if (outputProfile == null) {
+            return chapters;
+        }
+        ImageProfileResizer resizer = new ImageProfileResizer(outputProfile, tempDir.resolve("profiles"),
+            Runtime.getRuntime().availableProcessors(), epubFixedLayout && outputFormat.equals("epub"), logger);
+        return resizer.resize(chapters);
+    }
+    
+    /**
+     * Creates a PDF builder whose content beyond pdf.memory.limit.mb is kept in a scratch file
+     * in the book's temp directory.
+     * 
+     * @param title The book title
+     * @param adjustedProps Book properties for this volume
+     * @return The PDF builder
+     */
+    private PdfBuilderService createPdfBuilder(String title, Properties adjustedProps) {
+        PdfBuilderService pdfBuilder = new PdfBuilderService(title, logger, adjustedProps, pdfMemoryLimitMb, pdfPrepareThreads, tempDir);
+        if (pdfFragmentCache) {
+            pdfBuilder.setFragmentCacheDir(tempDir.resolve("pdf-fragments"));
+        }
+        return pdfBuilder;
+    }
+    
+    /**
+     * Creates an EPUB builder with the writer selected by epub.writer and the layout of epub.layout.
+     * 
+     * @param title The book title
+     * @param adjustedProps Book properties for this volume
+     * @return The EPUB builder
+     */
+    private EpubBuilderService createEpubBuilder(String title, Properties adjustedProps) {
+        EpubBuilderService epubBuilder = new EpubBuilderService(title, logger, adjustedProps, epubStreaming, epubThreads);
+        epubBuilder.setFixedLayout(epubFixedLayout);
+        return epubBuilder;
+    }
+    
+    /**
+     * Resolves a non-negative number from the book property, then the global default property.
+     * 
+     * @param bookKey Property name in the book configuration
+     * @param defaultKey Property name in the global configuration
+     * @param defaultValue Value used if neither property is set or valid
+     * @return The resolved value
+     */
+    private long resolveLong(String bookKey, String defaultKey, long defaultValue) {
+        for (String value : new String[] { bookProps.getProperty(bookKey), globalProps.getProperty(defaultKey) }) {
+            if (value != null && !value.trim().isEmpty()) {
+                try {
+                    long parsed = Long.parseLong(value.trim());
+                    if (parsed >= 0) {
+                        return parsed;
+                    }
+                } catch (NumberFormatException e) {
+                    // Fall through to the next source
+                }
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -412,6 +604,8 @@ public class BookJob {
     
     /**
      * Processes a list of chapters and returns the successfully processed ChapterContent list and failed URLs.
+     * When pipeline.prefetch is enabled, the page of the next chapter is fetched while the images
+     * of the current chapter are downloading, and the thinking time elapses in the background.
      * 
      * @param chapters The chapters to process
      * @param tmpImagesDir The temporary images directory
@@ -426,134 +620,288 @@ public class BookJob {
         List<String> allFailedUrls = new ArrayList<>();
         java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter = new java.util.HashMap<>();
         Random random = new Random();
+        ChapterPrefetcher prefetcher = new ChapterPrefetcher(httpClientService, requestContext, bookProps, logger);
+        DeferredRetryQueue retryQueue = new DeferredRetryQueue(downloadEngine, imageDownloadPermits, logger, imageRetryDelayMs, imageRetryAttempts);
+        List<DeferredChapter> deferredChapters = new ArrayList<>();
         
         int processedCount = 0;
         
-        for (ChapterInfo chapterInfo : chapters) {
-            // Track chapter processing time
-            long chapterStartTime = System.currentTimeMillis();
-            
-            try {
-                processedCount++;
-                // Calculate overall progress: (chapters processed before + current chapter) / total chapters overall
-                int overallProcessed = chaptersProcessedBefore + processedCount;
-                int percentage = (int) Math.round((overallProcessed * 100.0) / totalChaptersOverall);
-                String msg = "Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "% overall)";
-                logger.info("Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "% overall)");
-                System.out.println(msg);
+        try {
+            for (int chapterIndex = 0; chapterIndex < chapters.size(); chapterIndex++) {
+                ChapterInfo chapterInfo = chapters.get(chapterIndex);
+                boolean hasNextChapter = chapterIndex < chapters.size() - 1;
                 
-                // Check if chapter already exists
-                ChapterContent existingChapter = loadExistingChapter(chapterInfo, tmpHtmlDir, tmpImagesDir);
-                if (existingChapter != null) {
-                    processedChapters.add(existingChapter);
-                    logger.info("Skipped processing chapter " + chapterInfo.getChapterNumber() + " (already exists)");
-                    continue; // Skip thinking time and move to next chapter
-                }
+                // Track chapter processing time
+                long chapterStartTime = System.currentTimeMillis();
                 
-                // Fetch chapter HTML
-                String chapterHtml = httpClientService.getHtml(chapterInfo.getFullUrl());
-                if (chapterHtml == null) {
-                    logger.warning("Failed to fetch chapter " + chapterInfo.getChapterNumber() + " from URL: " + chapterInfo.getFullUrl() + ". Skipping.");
-                    continue;
-                }
-                
-                // Check for Cloudflare challenge
-                if (httpClientService.isCloudflareChallenge(chapterHtml)) {
-                    String errorMsg = "Cloudflare challenge detected while processing chapter " + 
-                        chapterInfo.getChapterNumber() + ", stopping further downloads.";
+                try {
+                    processedCount++;
+                    // Calculate overall progress: (chapters processed before + current chapter) / total chapters overall
+                    int overallProcessed = chaptersProcessedBefore + processedCount;
+                    int percentage = (int) Math.round((overallProcessed * 100.0) / totalChaptersOverall);
+                    String msg = "Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "% overall)";
+                    logger.info("Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "% overall)");
+                    System.out.println(msg);
+                    
+                    // Check if chapter already exists
+                    ChapterContent existingChapter = loadExistingChapter(chapterInfo, tmpHtmlDir, tmpImagesDir);
+                    if (existingChapter != null) {
+                        processedChapters.add(existingChapter);
+                        logger.info("Skipped processing chapter " + chapterInfo.getChapterNumber() + " (already exists)");
+                        continue; // Skip thinking time and move to next chapter
+                    }
+                    
+                    // Fetch chapter HTML (prefetched in pipelined mode)
+                    ChapterPrefetcher.ChapterPage chapterPage = prefetcher.take(chapterInfo);
+                    String chapterHtml = chapterPage.html;
+                    if (chapterHtml == null) {
+                        logger.warning("Failed to fetch chapter " + chapterInfo.getChapterNumber() + " from URL: " + chapterInfo.getFullUrl() + ". Skipping.");
+                        continue;
+                    }
+                    
+                    // Check for Cloudflare challenge
+                    if (httpClientService.isCloudflareChallenge(chapterHtml)) {
+                        String errorMsg = "Cloudflare challenge detected while processing chapter " + 
+                            chapterInfo.getChapterNumber() + ", stopping further downloads.";
+                        logger.severe(errorMsg);
+                        System.err.println("ERROR: " + errorMsg);
+                        logger.info("Will generate book for " + processedChapters.size() + 
+                            " successfully processed chapters only.");
+                        break; // Stop processing further chapters
+                    }
+                    
+                    // Start fetching the next chapter page; the thinking time elapses while our images download
+                    if (pipelinePrefetch && hasNextChapter) {
+                        ChapterInfo nextChapter = chapters.get(chapterIndex + 1);
+                        if (!Files.exists(tmpHtmlDir.resolve("chapter-" + nextChapter.getChapterNumber() + ".xhtml"))) {
+                            prefetcher.prefetch(nextChapter, nextThinkingDelayMs(random));
+                        }
+                    }
+                    
+                    // Image URLs were extracted together with the page
+                    List<String> imageUrls = chapterPage.imageUrls;
+                    
+                    if (imageUrls.isEmpty()) {
+                        logger.warning("Chapter " + chapterInfo.getChapterNumber() + " contains no images. Skipping.");
+                        saveHtmlForDebug(chapterHtml, "debug-chapter-" + chapterInfo.getChapterNumber() + ".html", 
+                            "chapter " + chapterInfo.getChapterNumber());
+                        continue;
+                    }
+                    
+                    logger.info("Found " + imageUrls.size() + " images in chapter " + chapterInfo.getChapterNumber());
+                    
+                    // Download images
+                    Path chapterImagesDir = tmpImagesDir.resolve(String.valueOf(chapterInfo.getChapterNumber()));
+                    Files.createDirectories(chapterImagesDir);
+                    
+                    // Calculate overall chapter index for progress tracking
+                    int overallChapterIndex = chaptersProcessedBefore + processedCount;
+                    DownloadResult downloadResult = downloadImages(imageUrls, chapterImagesDir, chapterInfo.getChapterNumber(), 
+                        overallChapterIndex, totalChaptersOverall, retryQueue);
+                    
+                    List<Path> downloadedImages = downloadResult.downloadedImages;
+                    allFailedUrls.addAll(downloadResult.failedUrls);
+                    
+                    // Track failed filenames for this chapter
+                    if (!downloadResult.failedUrlToFilename.isEmpty()) {
+                        java.util.Set<String> failedFilenames = new java.util.HashSet<>(downloadResult.failedUrlToFilename.values());
+                        failedFilenamesByChapter.put(chapterInfo.getChapterNumber(), failedFilenames);
+                    }
+                    
+                    // Create chapter HTML
+                    String chapterTitle = TemplateEngine.applyChapterTitleTemplate(
+                        bookProps.getProperty("chapter.title.template"), 
+                        chapterInfo.getChapterNumber(), 
+                        bookProps);
+                    
+                    // Images still being retried: the chapter is finalized before the volume is built
+                    if (!downloadResult.pendingRetries.isEmpty()) {
+                        deferredChapters.add(new DeferredChapter(processedChapters.size(), chapterInfo, chapterTitle, downloadResult));
+                        logger.info("Chapter " + chapterInfo.getChapterNumber() + " deferred until " + 
+                            downloadResult.pendingRetries.size() + " image retries finish");
+                        if (hasNextChapter) {
+                            waitBeforeNextChapter(random);
+                        }
+                        continue;
+                    }
+                    
+                    if (downloadedImages.isEmpty()) {
+                        logger.warning("Chapter " + chapterInfo.getChapterNumber() + 
+                            " has no successfully downloaded images, skipping this chapter.");
+                        // Still apply thinking time before next chapter
+                        if (hasNextChapter) {
+                            waitBeforeNextChapter(random);
+                        }
+                        continue;
+                    }
+                    
+                    // Get failed filenames for this chapter
+                    java.util.Set<String> chapterFailedFilenames = failedFilenamesByChapter.getOrDefault(
+                        chapterInfo.getChapterNumber(), new java.util.HashSet<>());
+                    
+                    Path chapterHtmlFile = createChapterHtml(chapterTitle, downloadedImages, 
+                        chapterInfo.getChapterNumber(), tmpHtmlDir, chapterFailedFilenames);
+                    
+                    ChapterContent chapterContent = new ChapterContent(chapterInfo, downloadedImages, chapterHtmlFile);
+                    processedChapters.add(chapterContent);
+                    
+                    // Calculate and log chapter duration
+                    long chapterDuration = System.currentTimeMillis() - chapterStartTime;
+                    String durationStr = formatDuration(chapterDuration);
+                    logger.info("Completed chapter " + chapterInfo.getChapterNumber() + " (duration: " + durationStr + ")");
+                    
+                    // Thinking time with random jitter (AFTER all images are downloaded, BEFORE next chapter)
+                    if (hasNextChapter) {
+                        waitBeforeNextChapter(random);
+                    }
+                    
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    String errorMsg = "Interrupted during chapter processing";
                     logger.severe(errorMsg);
                     System.err.println("ERROR: " + errorMsg);
-                    logger.info("Will generate book for " + processedChapters.size() + 
-                        " successfully processed chapters only.");
-                    break; // Stop processing further chapters
-                }
-                
-                // Extract image URLs
-                List<String> imageUrls = HtmlExtractor.extractImageUrls(chapterHtml, bookProps);
-                
-                if (imageUrls.isEmpty()) {
-                    logger.warning("Chapter " + chapterInfo.getChapterNumber() + " contains no images. Skipping.");
-                    saveHtmlForDebug(chapterHtml, "debug-chapter-" + chapterInfo.getChapterNumber() + ".html", 
-                        "chapter " + chapterInfo.getChapterNumber());
-                    continue;
+                    break;
+                } catch (Exception e) {
+                    String errorMsg = "Error processing chapter " + chapterInfo.getChapterNumber() + ": " + e.getMessage();
+                    logger.log(Level.SEVERE, errorMsg, e);
+                    System.err.println("ERROR: " + errorMsg);
                 }
-                
-                logger.info("Found " + imageUrls.size() + " images in chapter " + chapterInfo.getChapterNumber());
-                
-                // Download images
-                Path chapterImagesDir = tmpImagesDir.resolve(String.valueOf(chapterInfo.getChapterNumber()));
-                Files.createDirectories(chapterImagesDir);
-                
-                // Calculate overall chapter index for progress tracking
-                int overallChapterIndex = chaptersProcessedBefore + processedCount;
-                DownloadResult downloadResult = downloadImages(imageUrls, chapterImagesDir, chapterInfo.getChapterNumber(), 
-                    overallChapterIndex, totalChaptersOverall);
-                
-                List<Path> downloadedImages = downloadResult.downloadedImages;
-                allFailedUrls.addAll(downloadResult.failedUrls);
-                
-                // Track failed filenames for this chapter
-                if (!downloadResult.failedUrlToFilename.isEmpty()) {
-                    java.util.Set<String> failedFilenames = new java.util.HashSet<>(downloadResult.failedUrlToFilename.values());
-                    failedFilenamesByChapter.put(chapterInfo.getChapterNumber(), failedFilenames);
+            }
+            
+            finalizeDeferredChapters(deferredChapters, retryQueue, processedChapters, allFailedUrls, 
+                failedFilenamesByChapter, tmpHtmlDir);
+        } finally {
+            prefetcher.shutdown();
+            retryQueue.shutdown();
+        }
+        
+        return new ProcessChaptersResult(processedChapters, allFailedUrls, failedFilenamesByChapter);
+    }
+    
+    /**
+     * Waits for the deferred image retries of the given chapters, then writes their XHTML
+     * and inserts them in the processed chapters at their original position.
+     * Images whose retries all failed become placeholders, as with any failed image.
+     * 
+     * @param deferredChapters Chapters waiting for image retries, in processing order
+     * @param retryQueue The retry queue holding their images
+     * @param processedChapters Processed chapters, completed in place
+     * @param allFailedUrls Failed image URLs, completed in place
+     * @param failedFilenamesByChapter Failed filenames per chapter, completed in place
+     * @param tmpHtmlDir The temporary HTML directory
+     */
+    private void finalizeDeferredChapters(List<DeferredChapter> deferredChapters, DeferredRetryQueue retryQueue,
+            List<ChapterContent> processedChapters, List<String> allFailedUrls,
+            java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter, Path tmpHtmlDir) {
+        if (deferredChapters.isEmpty()) {
+            return;
+        }
+        
+        String msg = "Waiting for " + retryQueue.getPendingCount() + " deferred image retries (" + 
+            deferredChapters.size() + " chapters) before building the book";
+        logger.info(msg);
+        System.out.println(msg);
+        long waitStartTime = System.currentTimeMillis();
+        
+        int inserted = 0;
+        for (DeferredChapter deferred : deferredChapters) {
+            int chapterNumber = deferred.chapterInfo.getChapterNumber();
+            java.util.Map<Integer, Path> imagesByIndex = new java.util.TreeMap<>(deferred.downloadResult.downloadedByIndex);
+            java.util.Set<String> failedFilenames = new java.util.HashSet<>(deferred.downloadResult.failedUrlToFilename.values());
+            java.util.Map<String, ImageDimensions> retriedDimensions = new java.util.LinkedHashMap<>();
+            Path chapterImagesDir = null;
+            
+            for (PendingRetry retry : deferred.downloadResult.pendingRetries) {
+                Path imageFile = null;
+                try {
+                    imageFile = retry.future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.severe("Interrupted while waiting for deferred image retries");
+                    // Completes every pending retry as failed, so the remaining chapters are finalized at once
+                    retryQueue.shutdown();
+                    imageFile = retry.future.getNow(null);
+                } catch (ExecutionException e) {
+                    logger.warning("Deferred retry failed for " + retry.imageUrl + ": " + e.getMessage());
                 }
                 
-                if (downloadedImages.isEmpty()) {
-                    logger.warning("Chapter " + chapterInfo.getChapterNumber() + 
-                        " has no successfully downloaded images, skipping this chapter.");
-                    // Still apply thinking time before next chapter
-                    if (chapters.indexOf(chapterInfo) < chapters.size() - 1) {
-                        long jitter = 500 + random.nextInt(1001); // 500-1500 ms
-                        long totalWait = thinkingTimeMs + jitter;
-                        logger.info("Waiting " + totalWait + " ms before next chapter");
-                        Thread.sleep(totalWait);
+                if (imageFile != null) {
+                    imagesByIndex.put(retry.index, imageFile);
+                    chapterImagesDir = imageFile.getParent();
+                    ImageDimensions dimensions = measureImage(imageFile);
+                    if (dimensions != null) {
+                        retriedDimensions.put(imageFile.getFileName().toString(), dimensions);
                     }
-                    continue;
-                }
-                
-                // Create chapter HTML
-                String chapterTitle = TemplateEngine.applyChapterTitleTemplate(
-                    bookProps.getProperty("chapter.title.template"), 
-                    chapterInfo.getChapterNumber(), 
-                    bookProps);
-                
-                // Get failed filenames for this chapter
-                java.util.Set<String> chapterFailedFilenames = failedFilenamesByChapter.getOrDefault(
-                    chapterInfo.getChapterNumber(), new java.util.HashSet<>());
-                
-                Path chapterHtmlFile = createChapterHtml(chapterTitle, downloadedImages, 
-                    chapterInfo.getChapterNumber(), tmpHtmlDir, chapterFailedFilenames);
-                
-                ChapterContent chapterContent = new ChapterContent(chapterInfo, downloadedImages, chapterHtmlFile);
-                processedChapters.add(chapterContent);
-                
-                // Calculate and log chapter duration
-                long chapterDuration = System.currentTimeMillis() - chapterStartTime;
-                String durationStr = formatDuration(chapterDuration);
-                logger.info("Completed chapter " + chapterInfo.getChapterNumber() + " (duration: " + durationStr + ")");
-                
-                // Thinking time with random jitter (AFTER all images are downloaded, BEFORE next chapter)
-                if (chapters.indexOf(chapterInfo) < chapters.size() - 1) {
-                    long jitter = 500 + random.nextInt(1001); // 500-1500 ms
-                    long totalWait = thinkingTimeMs + jitter;
-                    logger.info("Waiting " + totalWait + " ms before next chapter");
-                    Thread.sleep(totalWait);
+                } else {
+                    allFailedUrls.add(retry.imageUrl);
+                    failedFilenames.add(retry.filename);
                 }
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                String errorMsg = "Interrupted during chapter processing";
-                logger.severe(errorMsg);
-                System.err.println("ERROR: " + errorMsg);
-                break;
-            } catch (Exception e) {
-                String errorMsg = "Error processing chapter " + chapterInfo.getChapterNumber() + ": " + e.getMessage();
+            }
+            
+            if (!failedFilenames.isEmpty()) {
+                failedFilenamesByChapter.put(chapterNumber, failedFilenames);
+            }
+            if (chapterImagesDir != null) {
+                recordImageDimensions(chapterImagesDir, retriedDimensions);
+            }
+            
+            List<Path> chapterImages = new ArrayList<>(imagesByIndex.values());
+            if (chapterImages.isEmpty()) {
+                logger.warning("Chapter " + chapterNumber + " has no successfully downloaded images, skipping this chapter.");
+                continue;
+            }
+            
+            try {
+                Path chapterHtmlFile = createChapterHtml(deferred.chapterTitle, chapterImages, chapterNumber, 
+                    tmpHtmlDir, failedFilenames);
+                processedChapters.add(deferred.position + inserted, 
+                    new ChapterContent(deferred.chapterInfo, chapterImages, chapterHtmlFile));
+                inserted++;
+                logger.info("Completed deferred chapter " + chapterNumber + " (" + 
+                    chapterImages.size() + " images, " + failedFilenames.size() + " failed)");
+            } catch (IOException e) {
+                String errorMsg = "Error writing deferred chapter " + chapterNumber + ": " + e.getMessage();
                 logger.log(Level.SEVERE, errorMsg, e);
                 System.err.println("ERROR: " + errorMsg);
             }
         }
         
-        return new ProcessChaptersResult(processedChapters, allFailedUrls, failedFilenamesByChapter);
+        logger.info("Deferred image retries finished after " + formatDuration(System.currentTimeMillis() - waitStartTime));
+    }
+    
+    /**
+     * Returns the thinking time to leave between two chapters: thinking.time.ms plus a random jitter,
+     * or 0 when the HTML requests of this book's host are already paced by the rate limiter of HttpClientService.
+     * 
+     * @param random Random source for the jitter
+     * @return Delay in milliseconds
+     */
+    private long nextThinkingDelayMs(Random random) {
+        if (htmlRateLimited) {
+            // Pages are paced by the rate limiter of their host in HttpClientService
+            return 0;
+        }
+        long jitter = 500 + random.nextInt(1001); // 500-1500 ms
+        return thinkingTimeMs + jitter;
+    }
+    
+    /**
+     * Sleeps for the thinking time before the next chapter.
+     * In pipelined mode the next chapter page is already scheduled with this delay, so nothing is slept here.
+     * 
+     * @param random Random source for the jitter
+     * @throws InterruptedException If interrupted while sleeping
+     */
+    private void waitBeforeNextChapter(Random random) throws InterruptedException {
+        if (pipelinePrefetch) {
+            return;
+        }
+        long totalWait = nextThinkingDelayMs(random);
+        if (totalWait <= 0) {
+            return;
+        }
+        logger.info("Waiting " + totalWait + " ms before next chapter");
+        Thread.sleep(totalWait);
     }
     
     /**
@@ -607,10 +955,13 @@ public class BookJob {
         
         logger.info("Generating book " + bookIndex + "/" + totalBooks + 
                 ": Chapters " + effectiveStart + " to " + effectiveEnd);
+        
+        // Resize images for the output device (same filenames, cached per profile)
+        bookChapters = applyOutputProfile(bookChapters);
             
         // Generate the book
             if (outputFormat.equals("pdf")) {
-            PdfBuilderService pdfBuilder = new PdfBuilderService(bookTitle, logger, adjustedProps);
+            PdfBuilderService pdfBuilder = createPdfBuilder(bookTitle, adjustedProps);
                 
                 // Collect all chapter titles first for TOC
                 List<String> chapterTitles = new ArrayList<>();
@@ -625,13 +976,8 @@ public class BookJob {
                 // Add title page with TOC first
                 pdfBuilder.addTitlePage(chapterTitles);
                 
-                // Then add all chapters
-            for (int i = 0; i < bookChapters.size(); i++) {
-                ChapterContent chapterContent = bookChapters.get(i);
-                int chapterNumber = chapterContent.getInfo().getChapterNumber();
-                java.util.Set<String> failedFilenames = failedFilenamesByChapter.getOrDefault(chapterNumber, new java.util.HashSet<>());
-                pdfBuilder.addChapter(chapterContent, chapterTitles.get(i), failedFilenames);
-                }
+                // Then add all chapters (images of upcoming chapters are prepared in parallel)
+                pdfBuilder.addChapters(bookChapters, chapterTitles, failedFilenamesByChapter);
                 
                 // Save PDF (use filename template for the file, title template is already used in PDF)
                 try {
@@ -644,7 +990,7 @@ public class BookJob {
                 }
             } else {
                 // EPUB format
-            EpubBuilderService epubBuilder = new EpubBuilderService(bookTitle, logger, adjustedProps);
+            EpubBuilderService epubBuilder = createEpubBuilder(bookTitle, adjustedProps);
             for (ChapterContent chapterContent : bookChapters) {
                     String chapterTitle = TemplateEngine.applyChapterTitleTemplate(
                         bookProps.getProperty("chapter.title.template"), 
@@ -654,19 +1000,142 @@ public class BookJob {
                 java.util.Set<String> failedFilenames = failedFilenamesByChapter.getOrDefault(chapterNumber, new java.util.HashSet<>());
                 epubBuilder.addChapter(chapterContent, chapterTitle, failedFilenames);
                 }
-                
-                // Save EPUB (use filename template for the file, title template is already used in EPUB)
-                try {
-                Path epubFile = epubBuilder.saveTo(outputDir, bookFilename);
-                    logger.info("EPUB created: " + epubFile.toAbsolutePath());
-                logger.info("Book " + bookIndex + " contains " + bookChapters.size() + 
-                        " chapters (range: " + effectiveStart + " to " + effectiveEnd + ")");
-                } catch (IOException e) {
-                logger.severe("Failed to save EPUB book " + bookIndex + ": " + e.getMessage());
+                
+                // Save EPUB (use filename template for the file, title template is already used in EPUB)
+                try {
+                Path epubFile = epubBuilder.saveTo(outputDir, bookFilename);
+                    logger.info("EPUB created: " + epubFile.toAbsolutePath());
+                logger.info("Book " + bookIndex + " contains " + bookChapters.size() + 
+                        " chapters (range: " + effectiveStart + " to " + effectiveEnd + ")");
+                } catch (IOException e) {
+                logger.severe("Failed to save EPUB book " + bookIndex + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * The chapters of a volume, downloaded and ready to be assembled into a book.
+     */
+    private static class VolumeWork {
+        final List<ChapterContent> chapters;
+        final int bookIndex;
+        final List<String> failedUrls;
+        final java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter;
+        final long startTime;
+        
+        VolumeWork(List<ChapterContent> chapters, int bookIndex, List<String> failedUrls,
+                java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter, long startTime) {
+            this.chapters = chapters;
+            this.bookIndex = bookIndex;
+            this.failedUrls = failedUrls;
+            this.failedFilenamesByChapter = failedFilenamesByChapter;
+            this.startTime = startTime;
+        }
+    }
+    
+    /**
+     * Consumer stage of the volume pipeline: a single thread takes downloaded volumes from a bounded
+     * queue and generates their PDF/EPUB, while the job thread downloads the chapters of the next volume.
+     * The queue holds at most one volume, so when the builder falls behind the job thread waits instead
+     * of downloading further ahead (back-pressure): temp files and memory stay bounded.
+     * An Error in the builder (e.g. OutOfMemoryError on a large PDF) stops it; the job thread then
+     * rethrows it instead of waiting for a queue nobody reads any more.
+     */
+    private class VolumeBuilderStage {
+        private final VolumeWork endOfVolumes = new VolumeWork(Collections.emptyList(), 0, null, null, 0);
+        private final BlockingQueue<VolumeWork> queue = new ArrayBlockingQueue<>(1);
+        private final Thread builderThread;
+        private volatile Throwable failure; // Error that stopped the builder thread
+        
+        VolumeBuilderStage(int totalBooks) {
+            builderThread = new Thread(() -> {
+                while (true) {
+                    VolumeWork volume;
+                    try {
+                        volume = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    if (volume == endOfVolumes) {
+                        return;
+                    }
+                    try {
+                        buildVolume(volume, totalBooks);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Failed to generate book " + volume.bookIndex + ": " + e.getMessage(), e);
+                    } catch (Throwable t) {
+                        logger.log(Level.SEVERE, "Book builder stopped while generating book " + volume.bookIndex + ": " + t, t);
+                        failure = t;
+                        return;
+                    }
+                }
+            }, "web2book-volume-builder");
+            builderThread.setDaemon(true);
+            builderThread.start();
+        }
+        
+        /**
+         * Hands a downloaded volume to the builder, waiting while the previous one is still queued.
+         */
+        void submit(VolumeWork volume) throws InterruptedException {
+            long waitStart = System.currentTimeMillis();
+            put(volume);
+            long waited = System.currentTimeMillis() - waitStart;
+            if (waited > 1000) {
+                logger.info("Waited " + formatDuration(waited) + " for the book builder before downloading the next volume");
+            }
+        }
+        
+        /**
+         * Waits until all submitted volumes are generated.
+         */
+        void finish() {
+            try {
+                put(endOfVolumes);
+                builderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning("Interrupted while waiting for the book builder");
+            }
+            rethrowFailure();
+        }
+        
+        /**
+         * Queues a volume, checking every second that the builder is still there to take it.
+         */
+        private void put(VolumeWork volume) throws InterruptedException {
+            do {
+                if (!builderThread.isAlive()) {
+                    rethrowFailure();
+                    throw new IllegalStateException("Book builder stopped before book " + volume.bookIndex + " was generated");
+                }
+            } while (!queue.offer(volume, 1, TimeUnit.SECONDS));
+        }
+        
+        private void rethrowFailure() {
+            Throwable t = failure;
+            if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                throw new IllegalStateException("Book builder failed: " + t.getMessage(), t);
             }
         }
     }
     
+    /**
+     * Generates the book of a downloaded volume and logs its duration (download and generation).
+     */
+    private void buildVolume(VolumeWork volume, int totalBooks) {
+        generateBook(volume.chapters, volume.bookIndex, totalBooks, volume.failedUrls, volume.failedFilenamesByChapter);
+        
+        // Log book processing duration
+        long bookDuration = System.currentTimeMillis() - volume.startTime;
+        String bookDurationStr = formatDuration(bookDuration);
+        logger.info("Completed book " + volume.bookIndex + "/" + totalBooks + 
+            " (duration: " + bookDurationStr + ")");
+    }
+    
     private void processVolumes(List<ChapterInfo> chapters, int maxChaptersPerBook) {
         // Calculate how many books we need
         int totalChapters = chapters.size();
@@ -693,60 +1162,72 @@ public class BookJob {
         // Track overall progress across all books
         int chaptersProcessedSoFar = 0;
         
-        // Process each book sequentially
-        for (int bookIndex = 0; bookIndex < totalBooks; bookIndex++) {
-            int startIdx = bookIndex * maxChaptersPerBook;
-            int endIdx = Math.min(startIdx + maxChaptersPerBook, totalChapters);
-            List<ChapterInfo> bookChapters = chapters.subList(startIdx, endIdx);
-            
-            if (bookChapters.isEmpty()) {
-                continue; // Skip empty books
-            }
-            
-            // Calculate chapter range for this book
-            int bookStart = bookChapters.get(0).getChapterNumber();
-            int bookEnd = bookChapters.get(bookChapters.size() - 1).getChapterNumber();
-            
-            logger.info("=== Processing Book " + (bookIndex + 1) + "/" + totalBooks + 
-                ": Chapters " + bookStart + " to " + bookEnd + " ===");
-            System.out.println("\n=== Processing Book " + (bookIndex + 1) + "/" + totalBooks + 
-                ": Chapters " + bookStart + " to " + bookEnd + " ===");
-            
-            // Check if book already exists
-            if (!regenerateExistingBooks && bookFileExists(bookStart, bookEnd)) {
-                logger.info("Book " + (bookIndex + 1) + " already exists (Chapters " + bookStart + 
-                    " to " + bookEnd + "). Skipping (regenerate.existing.books=false).");
-                System.out.println("Skipping book " + (bookIndex + 1) + "/" + totalBooks + 
-                    " - already exists (Chapters " + bookStart + " to " + bookEnd + ")");
-                // Update progress counter for skipped books
-                chaptersProcessedSoFar += bookChapters.size();
-                continue;
-            }
+        // Volumes are built by a consumer thread while the chapters of the next volume download
+        VolumeBuilderStage builderStage = pipelineVolumes ? new VolumeBuilderStage(totalBooks) : null;
+        
+        try {
+            // Process each book sequentially
+            for (int bookIndex = 0; bookIndex < totalBooks; bookIndex++) {
+                int startIdx = bookIndex * maxChaptersPerBook;
+                int endIdx = Math.min(startIdx + maxChaptersPerBook, totalChapters);
+                List<ChapterInfo> bookChapters = chapters.subList(startIdx, endIdx);
+            
+                if (bookChapters.isEmpty()) {
+                    continue; // Skip empty books
+                }
             
-            // Process chapters for this book
-            long bookStartTime = System.currentTimeMillis();
-            ProcessChaptersResult processResult = processChapters(bookChapters, tmpImagesDir, tmpHtmlDir,
-                    totalChapters, chaptersProcessedSoFar);
-            List<ChapterContent> processedChapters = processResult.processedChapters;
-            List<String> failedUrls = processResult.failedUrls;
-            java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter = processResult.failedFilenamesByChapter;
+                // Calculate chapter range for this book
+                int bookStart = bookChapters.get(0).getChapterNumber();
+                int bookEnd = bookChapters.get(bookChapters.size() - 1).getChapterNumber();
+            
+                logger.info("=== Processing Book " + (bookIndex + 1) + "/" + totalBooks + 
+                    ": Chapters " + bookStart + " to " + bookEnd + " ===");
+                System.out.println("\n=== Processing Book " + (bookIndex + 1) + "/" + totalBooks + 
+                    ": Chapters " + bookStart + " to " + bookEnd + " ===");
+            
+                // Check if book already exists
+                if (!regenerateExistingBooks && bookFileExists(bookStart, bookEnd)) {
+                    logger.info("Book " + (bookIndex + 1) + " already exists (Chapters " + bookStart + 
+                        " to " + bookEnd + "). Skipping (regenerate.existing.books=false).");
+                    System.out.println("Skipping book " + (bookIndex + 1) + "/" + totalBooks + 
+                        " - already exists (Chapters " + bookStart + " to " + bookEnd + ")");
+                    // Update progress counter for skipped books
+                    chaptersProcessedSoFar += bookChapters.size();
+                    continue;
+                }
             
-            // Update progress counter after processing this book
-            chaptersProcessedSoFar += processedChapters.size();
+                // Process chapters for this book
+                long bookStartTime = System.currentTimeMillis();
+                ProcessChaptersResult processResult = processChapters(bookChapters, tmpImagesDir, tmpHtmlDir,
+                        totalChapters, chaptersProcessedSoFar);
+                List<ChapterContent> processedChapters = processResult.processedChapters;
+                List<String> failedUrls = processResult.failedUrls;
+                java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter = processResult.failedFilenamesByChapter;
             
-            if (processedChapters.isEmpty()) {
-                logger.warning("No chapters were successfully processed for book " + (bookIndex + 1) + ", skipping book generation.");
-                continue;
-            }
+                // Update progress counter after processing this book
+                chaptersProcessedSoFar += processedChapters.size();
             
-            // Generate the book immediately
-            generateBook(processedChapters, bookIndex + 1, totalBooks, failedUrls, failedFilenamesByChapter);
+                if (processedChapters.isEmpty()) {
+                    logger.warning("No chapters were successfully processed for book " + (bookIndex + 1) + ", skipping book generation.");
+                    continue;
+                }
             
-            // Log book processing duration
-            long bookDuration = System.currentTimeMillis() - bookStartTime;
-            String bookDurationStr = formatDuration(bookDuration);
-            logger.info("Completed book " + (bookIndex + 1) + "/" + totalBooks + 
-                " (duration: " + bookDurationStr + ")");
+                VolumeWork volume = new VolumeWork(processedChapters, bookIndex + 1, failedUrls, failedFilenamesByChapter, bookStartTime);
+                if (builderStage != null) {
+                    // Blocks while the builder is behind (back-pressure), then goes on with the next volume's downloads
+                    builderStage.submit(volume);
+                } else {
+                    // Generate the book immediately
+                    buildVolume(volume, totalBooks);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while queueing volumes for generation");
+        } finally {
+            if (builderStage != null) {
+                builderStage.finish();
+            }
         }
         
         logger.info("Completed processing all " + totalBooks + " books");
@@ -794,6 +1275,37 @@ public class BookJob {
             return;
         }
         
+        // Append mode: only the chapters missing from the EPUB of an earlier run are downloaded
+        ExistingEpub appendBase = null;
+        if (epubAppend && outputFormat.equals("epub") && !regenerateExistingBooks) {
+            if (!epubStreaming) {
+                logger.warning("epub.append needs epub.writer=stream, building the whole book");
+            } else {
+                appendBase = findAppendableEpub(chapters);
+            }
+        }
+        if (appendBase != null) {
+            java.util.Set<Integer> existingChapterNumbers = new java.util.HashSet<>();
+            for (ExistingEpub.ExistingChapter existing : appendBase.getChapters()) {
+                existingChapterNumbers.add(existing.getChapterNumber());
+            }
+            List<ChapterInfo> newChapters = chapters.stream()
+                .filter(c -> !existingChapterNumbers.contains(c.getChapterNumber()))
+                .collect(Collectors.toList());
+            if (newChapters.isEmpty()) {
+                String msg = "EPUB " + appendBase.getFile().getFileName() + " is up to date (" + 
+                    appendBase.getChapters().size() + " chapters), nothing to append";
+                logger.info(msg);
+                System.out.println(msg);
+                return;
+            }
+            String msg = "Appending " + newChapters.size() + " new chapters to " + appendBase.getFile().getFileName() + 
+                " (" + appendBase.getChapters().size() + " chapters)";
+            logger.info(msg);
+            System.out.println(msg);
+            chapters = newChapters;
+        }
+        
         // Calculate chapter range for visibility
         int bookStart = chapters.get(0).getChapterNumber();
         int bookEnd = chapters.get(chapters.size() - 1).getChapterNumber();
@@ -801,136 +1313,14 @@ public class BookJob {
         logger.info("=== Processing Single Volume Book: Chapters " + bookStart + " to " + bookEnd + " ===");
         System.out.println("\n=== Processing Single Volume Book: Chapters " + bookStart + " to " + bookEnd + " ===");
         
-                // Track successfully processed chapters and failed URLs
-        List<ChapterContent> successfullyProcessedChapters = new ArrayList<>();
-        List<String> allFailedUrls = new ArrayList<>();
-        java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter = new java.util.HashMap<>();
-        Random random = new Random();
-        
         // Track total processing time
         long totalStartTime = System.currentTimeMillis();
         
-        // Process each chapter sequentially
-        int totalChapters = chapters.size();
-        int processedCount = 0;
-        for (ChapterInfo chapterInfo : chapters) {
-            // Track chapter processing time
-            long chapterStartTime = System.currentTimeMillis();
-            
-            try {
-                processedCount++;
-                // For single volume, calculate percentage based on total chapters
-                int percentage = (int) Math.round((processedCount * 100.0) / totalChapters);
-                String msg = "Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "%)";
-                logger.info("Processing chapter " + chapterInfo.getChapterNumber() + " (" + percentage + "%)");
-                System.out.println(msg);
-                
-                // Check if chapter already exists
-                ChapterContent existingChapter = loadExistingChapter(chapterInfo, tmpHtmlDir, tmpImagesDir);
-                if (existingChapter != null) {
-                    successfullyProcessedChapters.add(existingChapter);
-                    logger.info("Skipped processing chapter " + chapterInfo.getChapterNumber() + " (already exists)");
-                    continue; // Skip thinking time and move to next chapter
-                }
-                
-                // Fetch chapter HTML
-                String chapterHtml = httpClientService.getHtml(chapterInfo.getFullUrl());
-                if (chapterHtml == null) {
-                    logger.warning("Failed to fetch chapter " + chapterInfo.getChapterNumber() + " from URL: " + chapterInfo.getFullUrl() + ". Skipping.");
-                    continue;
-                }
-                
-                // Check for Cloudflare challenge
-                if (httpClientService.isCloudflareChallenge(chapterHtml)) {
-                    String errorMsg = "Cloudflare challenge detected while processing chapter " + 
-                        chapterInfo.getChapterNumber() + ", stopping further downloads for this book.";
-                    logger.severe(errorMsg);
-                    System.err.println("ERROR: " + errorMsg);
-                    logger.info("Will generate EPUB for " + successfullyProcessedChapters.size() + 
-                        " successfully processed chapters only.");
-                    break; // Stop processing further chapters
-                }
-                
-                // Extract image URLs
-                List<String> imageUrls = HtmlExtractor.extractImageUrls(chapterHtml, bookProps);
-                
-                if (imageUrls.isEmpty()) {
-                    logger.warning("Chapter " + chapterInfo.getChapterNumber() + " contains no images. Skipping.");
-                    saveHtmlForDebug(chapterHtml, "debug-chapter-" + chapterInfo.getChapterNumber() + ".html", 
-                        "chapter " + chapterInfo.getChapterNumber());
-                    continue;
-                }
-                
-                logger.info("Found " + imageUrls.size() + " images in chapter " + chapterInfo.getChapterNumber());
-                
-                // Download images
-                Path chapterImagesDir = tmpImagesDir.resolve(String.valueOf(chapterInfo.getChapterNumber()));
-                Files.createDirectories(chapterImagesDir);
-                
-                // For single volume, use processedCount and totalChapters (local to this method)
-                DownloadResult downloadResult = downloadImages(imageUrls, chapterImagesDir, chapterInfo.getChapterNumber(), 
-                    processedCount, totalChapters);
-                
-                List<Path> downloadedImages = downloadResult.downloadedImages;
-                allFailedUrls.addAll(downloadResult.failedUrls);
-                
-                // Track failed filenames for this chapter
-                java.util.Set<String> failedFilenames = new java.util.HashSet<>();
-                if (!downloadResult.failedUrlToFilename.isEmpty()) {
-                    failedFilenames = new java.util.HashSet<>(downloadResult.failedUrlToFilename.values());
-                    failedFilenamesByChapter.put(chapterInfo.getChapterNumber(), failedFilenames);
-                }
-                
-                if (downloadedImages.isEmpty()) {
-                    logger.warning("Chapter " + chapterInfo.getChapterNumber() + 
-                        " has no successfully downloaded images, skipping this chapter.");
-                    // Still apply thinking time before next chapter
-                    if (chapters.indexOf(chapterInfo) < chapters.size() - 1) {
-                        long jitter = 500 + random.nextInt(1001); // 500-1500 ms
-                        long totalWait = thinkingTimeMs + jitter;
-                        logger.info("Waiting " + totalWait + " ms before next chapter");
-                        Thread.sleep(totalWait);
-                    }
-                    continue;
-                }
-                
-                // Create chapter HTML
-                String chapterTitle = TemplateEngine.applyChapterTitleTemplate(
-                    bookProps.getProperty("chapter.title.template"), 
-                    chapterInfo.getChapterNumber(), 
-                    bookProps);
-                
-                Path chapterHtmlFile = createChapterHtml(chapterTitle, downloadedImages, 
-                    chapterInfo.getChapterNumber(), tmpHtmlDir, failedFilenames);
-                
-                ChapterContent chapterContent = new ChapterContent(chapterInfo, downloadedImages, chapterHtmlFile);
-                successfullyProcessedChapters.add(chapterContent);
-                
-                // Calculate and log chapter duration
-                long chapterDuration = System.currentTimeMillis() - chapterStartTime;
-                String durationStr = formatDuration(chapterDuration);
-                logger.info("Completed chapter " + chapterInfo.getChapterNumber() + " (duration: " + durationStr + ")");
-                
-                // Thinking time with random jitter (AFTER all images are downloaded, BEFORE next chapter)
-                if (chapters.indexOf(chapterInfo) < chapters.size() - 1) {
-                    long jitter = 500 + random.nextInt(1001); // 500-1500 ms
-                    long totalWait = thinkingTimeMs + jitter;
-                    logger.info("Waiting " + totalWait + " ms before next chapter");
-                    Thread.sleep(totalWait);
-                }
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                String errorMsg = "Interrupted during chapter processing";
-                logger.severe(errorMsg);
-                System.err.println("ERROR: " + errorMsg);
-                break;
-            } catch (Exception e) {
-                String errorMsg = "Error processing chapter " + chapterInfo.getChapterNumber() + ": " + e.getMessage();
-                logger.log(Level.SEVERE, errorMsg, e);
-                System.err.println("ERROR: " + errorMsg);
-            }
-        }
+        // Process each chapter (same chapter loop as multi-volume books)
+        ProcessChaptersResult processResult = processChapters(chapters, tmpImagesDir, tmpHtmlDir, chapters.size(), 0);
+        List<ChapterContent> successfullyProcessedChapters = processResult.processedChapters;
+        List<String> allFailedUrls = processResult.failedUrls;
+        java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter = processResult.failedFilenamesByChapter;
         
         // Log total processing duration
         long totalDuration = System.currentTimeMillis() - totalStartTime;
@@ -953,6 +1343,12 @@ public class BookJob {
             .mapToInt(c -> c.getInfo().getChapterNumber())
             .max()
             .orElse(0);
+        if (appendBase != null) {
+            for (ExistingEpub.ExistingChapter existing : appendBase.getChapters()) {
+                effectiveStart = Math.min(effectiveStart, existing.getChapterNumber());
+                effectiveEnd = Math.max(effectiveEnd, existing.getChapterNumber());
+            }
+        }
         
         // Adjust book title template with effective range
         Properties adjustedProps = new Properties(bookProps);
@@ -977,9 +1373,12 @@ public class BookJob {
             incompleteBooks.add(new IncompleteBook(adjustedFilename, 1, allFailedUrls));
         }
         
+        // Resize images for the output device (same filenames, cached per profile)
+        successfullyProcessedChapters = applyOutputProfile(successfullyProcessedChapters);
+        
         // Add all successfully processed chapters
         if (outputFormat.equals("pdf")) {
-            PdfBuilderService pdfBuilder = new PdfBuilderService(adjustedTitle, logger, adjustedProps);
+            PdfBuilderService pdfBuilder = createPdfBuilder(adjustedTitle, adjustedProps);
             
             // Collect all chapter titles first for TOC
             List<String> chapterTitles = new ArrayList<>();
@@ -994,13 +1393,8 @@ public class BookJob {
             // Add title page with TOC first
             pdfBuilder.addTitlePage(chapterTitles);
             
-            // Then add all chapters
-            for (int i = 0; i < successfullyProcessedChapters.size(); i++) {
-                ChapterContent chapterContent = successfullyProcessedChapters.get(i);
-                int chapterNumber = chapterContent.getInfo().getChapterNumber();
-                java.util.Set<String> failedFilenames = failedFilenamesByChapter.getOrDefault(chapterNumber, new java.util.HashSet<>());
-                pdfBuilder.addChapter(chapterContent, chapterTitles.get(i), failedFilenames);
-            }
+            // Then add all chapters (images of upcoming chapters are prepared in parallel)
+            pdfBuilder.addChapters(successfullyProcessedChapters, chapterTitles, failedFilenamesByChapter);
             
             // Save PDF (use filename template for the file, title template is already used in PDF)
             try {
@@ -1013,7 +1407,10 @@ public class BookJob {
             }
         } else {
             // EPUB format
-            EpubBuilderService epubBuilder = new EpubBuilderService(adjustedTitle, logger, adjustedProps);
+            EpubBuilderService epubBuilder = createEpubBuilder(adjustedTitle, adjustedProps);
+            if (appendBase != null) {
+                epubBuilder.appendTo(appendBase);
+            }
             for (ChapterContent chapterContent : successfullyProcessedChapters) {
                 String chapterTitle = TemplateEngine.applyChapterTitleTemplate(
                     bookProps.getProperty("chapter.title.template"), 
@@ -1030,6 +1427,12 @@ public class BookJob {
                 logger.info("EPUB created: " + epubFile.toAbsolutePath());
                 logger.info("Processed " + successfullyProcessedChapters.size() + " chapters (range: " + 
                     effectiveStart + " to " + effectiveEnd + ")");
+                // The new EPUB holds all chapters of the one it was appended to (named for a shorter range)
+                if (appendBase != null && !appendBase.getFile().toAbsolutePath().normalize()
+                        .equals(epubFile.toAbsolutePath().normalize())) {
+                    Files.deleteIfExists(appendBase.getFile());
+                    logger.info("Replaced " + appendBase.getFile().getFileName() + " by " + epubFile.getFileName());
+                }
             } catch (IOException e) {
                 logger.severe("Failed to save EPUB: " + e.getMessage());
             }
@@ -1072,12 +1475,18 @@ public class BookJob {
         final Path imageFile;
         final boolean success;
         final String imageUrl; // Store URL for failed downloads
+        final ImageDimensions dimensions; // Read from the image header for fixed-layout EPUBs, else null
         
         ImageDownloadResult(int originalIndex, Path imageFile, boolean success, String imageUrl) {
+            this(originalIndex, imageFile, success, imageUrl, null);
+        }
+        
+        ImageDownloadResult(int originalIndex, Path imageFile, boolean success, String imageUrl, ImageDimensions dimensions) {
             this.originalIndex = originalIndex;
             this.imageFile = imageFile;
             this.success = success;
             this.imageUrl = imageUrl;
+            this.dimensions = dimensions;
         }
     }
     
@@ -1087,6 +1496,7 @@ public class BookJob {
     private class ImageDownloadTask implements Callable<ImageDownloadResult> {
         private final int index;
         private final String imageUrl;
+        private final String filename;
         private final Path chapterImagesDir;
         private final int chapterNumber;
         private final int totalImages;
@@ -1094,11 +1504,12 @@ public class BookJob {
         private final int totalChapters;
         private final Map<String, Integer> filenameCounters;
         
-        ImageDownloadTask(int index, String imageUrl, Path chapterImagesDir, int chapterNumber,
+        ImageDownloadTask(int index, String imageUrl, String filename, Path chapterImagesDir, int chapterNumber,
                          int totalImages, int currentChapterIndex, int totalChapters,
                          Map<String, Integer> filenameCounters) {
             this.index = index;
             this.imageUrl = imageUrl;
+            this.filename = filename;
             this.chapterImagesDir = chapterImagesDir;
             this.chapterNumber = chapterNumber;
             this.totalImages = totalImages;
@@ -1113,71 +1524,98 @@ public class BookJob {
             try {
                 logger.finest("ImageDownloadTask[" + index + "] starting: " + imageUrl);
                 
-                // Generate filename (synchronized to avoid conflicts)
-                String filename;
-                synchronized (filenameCounters) {
-                    filename = generateImageFilename(imageUrl, index, filenameCounters);
-                }
+                // Filename is generated up front so a deferred retry writes the same file
                 Path imageFile = chapterImagesDir.resolve(filename);
+                // WebP images are stored as JPEG
+                String finalFilename = updateFilenameForJpeg(filename);
+                Path finalImageFile = chapterImagesDir.resolve(finalFilename);
                 
-                logger.finest("ImageDownloadTask[" + index + "] generated filename: " + filename);
+                logger.finest("ImageDownloadTask[" + index + "] filename: " + filename);
                 
                 // Print progress
                 System.out.println("  Downloading image " + (index + 1) + "/" + totalImages + 
                     " of chapter " + chapterNumber);
                 
-                // Check if file already exists (caching)
-                if (Files.exists(imageFile)) {
+                // Check if file already exists (caching). Images only get their final name once
+                // complete, so an interrupted download (.part file) is never taken for a cached image
+                if (Files.exists(imageFile) || Files.exists(finalImageFile)) {
+                    Path existingFile = Files.exists(imageFile) ? imageFile : finalImageFile;
                     logger.finest("ImageDownloadTask[" + index + "] file already exists, skipping download");
-                    logger.info("Skipped existing image: " + filename + " from " + imageUrl);
-                    return new ImageDownloadResult(index, imageFile, true, imageUrl);
+                    logger.info("Skipped existing image: " + existingFile.getFileName() + " from " + imageUrl);
+                    return new ImageDownloadResult(index, existingFile, true, imageUrl, measureImage(existingFile));
+                }
+                
+                // Image already downloaded by another chapter, volume or book: link it from the store
+                Path storedImage = imageStore != null ? imageStore.lookup(imageUrl) : null;
+                if (storedImage != null) {
+                    synchronized (filenameCounters) {
+                        imageStore.linkInto(storedImage, finalImageFile);
+                    }
+                    logger.info("Reused stored image " + (index + 1) + "/" + totalImages + ": " + finalFilename + 
+                        " from " + imageUrl);
+                    return new ImageDownloadResult(index, finalImageFile, true, imageUrl, measureImage(finalImageFile));
                 }
                 
                 // Encode URL to handle spaces and special characters
                 String encodedImageUrl = encodeUrl(imageUrl);
                 logger.finest("ImageDownloadTask[" + index + "] encoded URL: " + encodedImageUrl);
                 
-                // Download image
-                logger.finest("ImageDownloadTask[" + index + "] calling downloadBinary()");
-                long downloadStartTime = System.currentTimeMillis();
-                byte[] imageData = httpClientService.downloadBinary(encodedImageUrl);
-                long downloadDuration = System.currentTimeMillis() - downloadStartTime;
-                
-                if (imageData == null) {
-                    logger.warning("Failed to download image " + (index + 1) + "/" + totalImages + 
-                        " from " + imageUrl + " (encoded: " + encodedImageUrl + ") after " + downloadDuration + "ms");
-                    return new ImageDownloadResult(index, null, false, imageUrl);
-                }
-                
-                logger.finest("ImageDownloadTask[" + index + "] downloaded " + imageData.length + 
-                    " bytes in " + downloadDuration + "ms");
-                
-                // Convert WebP to JPEG if necessary
-                byte[] processedImageData = convertWebPToJpeg(imageData);
-                String finalFilename = updateFilenameForJpeg(filename);
-                Path finalImageFile = chapterImagesDir.resolve(finalFilename);
-                
-                // Write file (synchronized on filenameCounters to avoid conflicts)
-                // Note: Since filename generation is synchronized and we check file existence,
-                // this is mainly a safety measure for concurrent writes
-                long writeStartTime = System.currentTimeMillis();
-                synchronized (filenameCounters) {
-                    // Double-check file doesn't exist (another thread might have created it)
-                    if (!Files.exists(finalImageFile)) {
-                        Files.write(finalImageFile, processedImageData);
-                        logger.finest("ImageDownloadTask[" + index + "] wrote file in " + 
-                            (System.currentTimeMillis() - writeStartTime) + "ms");
-                    } else {
-                        logger.finest("ImageDownloadTask[" + index + "] file was created by another thread, skipping write");
-                        logger.info("Skipped writing image (already exists): " + finalFilename + " from " + imageUrl);
+                // Stream the image to a temporary file next to its final location
+                Path partFile = chapterImagesDir.resolve(finalFilename + "." + index + ".part");
+                Path convertedFile = chapterImagesDir.resolve(finalFilename + "." + index + ".jpg.part");
+                try {
+                    logger.finest("ImageDownloadTask[" + index + "] calling downloadToFile()");
+                    long downloadStartTime = System.currentTimeMillis();
+                    boolean downloaded = httpClientService.downloadToFile(encodedImageUrl, requestContext, partFile);
+                    long downloadDuration = System.currentTimeMillis() - downloadStartTime;
+                    
+                    if (!downloaded) {
+                        logger.warning("Failed to download image " + (index + 1) + "/" + totalImages + 
+                            " from " + imageUrl + " (encoded: " + encodedImageUrl + ") after " + downloadDuration + "ms");
+                        return new ImageDownloadResult(index, null, false, imageUrl);
+                    }
+                    
+                    logger.finest("ImageDownloadTask[" + index + "] downloaded " + Files.size(partFile) + 
+                        " bytes in " + downloadDuration + "ms");
+                    
+                    // Convert WebP to JPEG if necessary (detected from the first bytes of the file)
+                    Path completeFile = partFile;
+                    if (isWebP(partFile) && convertWebPToJpeg(partFile, convertedFile)) {
+                        completeFile = convertedFile;
+                    }
+                    
+                    // Store the image once by content, the chapter gets a link to it
+                    Path objectFile = null;
+                    if (imageStore != null) {
+                        objectFile = imageStore.put(imageUrl, completeFile, extensionOf(finalFilename));
+                    }
+                    
+                    // Move the complete file to its final name (synchronized on filenameCounters to avoid conflicts)
+                    long writeStartTime = System.currentTimeMillis();
+                    synchronized (filenameCounters) {
+                        // Double-check file doesn't exist (another thread might have created it)
+                        if (objectFile != null) {
+                            imageStore.linkInto(objectFile, finalImageFile);
+                        } else if (!Files.exists(finalImageFile)) {
+                            moveAtomically(completeFile, finalImageFile);
+                            logger.finest("ImageDownloadTask[" + index + "] moved file in " + 
+                                (System.currentTimeMillis() - writeStartTime) + "ms");
+                        } else {
+                            logger.finest("ImageDownloadTask[" + index + "] file was created by another thread, skipping write");
+                            logger.info("Skipped writing image (already exists): " + finalFilename + " from " + imageUrl);
+                        }
                     }
+                } finally {
+                    // Leftovers of a failed, converted or duplicate download
+                    Files.deleteIfExists(partFile);
+                    Files.deleteIfExists(convertedFile);
                 }
                 
                 long totalDuration = System.currentTimeMillis() - taskStartTime;
                 logger.finest("ImageDownloadTask[" + index + "] completed successfully in " + totalDuration + "ms");
                 logger.info("Downloaded image " + (index + 1) + "/" + totalImages + ": " + finalFilename + 
                     " from " + imageUrl + " (duration: " + totalDuration + "ms)");
-                return new ImageDownloadResult(index, finalImageFile, true, imageUrl);
+                return new ImageDownloadResult(index, finalImageFile, true, imageUrl, measureImage(finalImageFile));
                 
             } catch (Exception e) {
                 long totalDuration = System.currentTimeMillis() - taskStartTime;
@@ -1188,52 +1626,141 @@ public class BookJob {
     }
     
     /**
-     * Downloads images and returns both successful downloads and failed URLs/filenames.
+     * Reads the dimensions of a downloaded image from its header, for fixed-layout EPUB pages.
      * 
-     * @param imageUrls List of image URLs to download
-     * @param chapterImagesDir Directory to save images
-     * @param chapterNumber Chapter number
-     * @param currentChapterIndex Current chapter index
-     * @param totalChapters Total number of chapters
-     * @return A DownloadResult containing successful downloads and failed URLs/filenames
+     * @param imageFile The image in the chapter images directory
+     * @return The dimensions, or null if the book is not a fixed-layout EPUB or the format is unknown
+     */
+    private ImageDimensions measureImage(Path imageFile) {
+        if (!epubFixedLayout || !outputFormat.equals("epub")) {
+            return null;
+        }
+        try {
+            ImageDimensions dimensions = ImageDimensions.readHeader(imageFile);
+            if (dimensions == null) {
+                logger.fine("Dimensions of " + imageFile.getFileName() + " not recorded: unknown image format");
+            }
+            return dimensions;
+        } catch (IOException e) {
+            logger.warning("Failed to read dimensions of " + imageFile.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Records the dimensions of the images of a chapter next to them, in one write per chapter,
+     * so that fixed-layout EPUB pages get their size without the builder opening the images.
+     * 
+     * @param chapterImagesDir The chapter images directory
+     * @param dimensionsByName The dimensions by image filename
+     */
+    private void recordImageDimensions(Path chapterImagesDir, java.util.Map<String, ImageDimensions> dimensionsByName) {
+        try {
+            ImageDimensions.recordAll(chapterImagesDir, dimensionsByName);
+        } catch (IOException e) {
+            logger.warning("Failed to record image dimensions in " + chapterImagesDir + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * An image whose download failed and was handed over to the deferred retry queue.
+     */
+    private static class PendingRetry {
+        final int index;
+        final String imageUrl;
+        final String filename;
+        final CompletableFuture<Path> future; // Completed with the image file, or null if all retries failed
+        
+        PendingRetry(int index, String imageUrl, String filename, CompletableFuture<Path> future) {
+            this.index = index;
+            this.imageUrl = imageUrl;
+            this.filename = filename;
+            this.future = future;
+        }
+    }
+    
+    /**
+     * Result of the download of a chapter's images: successful downloads, failed URLs/filenames,
+     * and images still waiting in the deferred retry queue.
      */
     private static class DownloadResult {
         final List<Path> downloadedImages;
+        final java.util.Map<Integer, Path> downloadedByIndex; // Original image index -> file
         final List<String> failedUrls;
         final java.util.Map<String, String> failedUrlToFilename; // Map failed URL to expected filename
+        final List<PendingRetry> pendingRetries;
         
-        DownloadResult(List<Path> downloadedImages, List<String> failedUrls, java.util.Map<String, String> failedUrlToFilename) {
+        DownloadResult(List<Path> downloadedImages, java.util.Map<Integer, Path> downloadedByIndex, List<String> failedUrls,
+                java.util.Map<String, String> failedUrlToFilename, List<PendingRetry> pendingRetries) {
             this.downloadedImages = downloadedImages;
+            this.downloadedByIndex = downloadedByIndex;
             this.failedUrls = failedUrls;
             this.failedUrlToFilename = failedUrlToFilename;
+            this.pendingRetries = pendingRetries;
+        }
+    }
+    
+    /**
+     * A chapter whose XHTML is written once its deferred image retries are finished.
+     */
+    private static class DeferredChapter {
+        final int position; // Index in the processed chapters list at the time the chapter was deferred
+        final ChapterInfo chapterInfo;
+        final String chapterTitle;
+        final DownloadResult downloadResult;
+        
+        DeferredChapter(int position, ChapterInfo chapterInfo, String chapterTitle, DownloadResult downloadResult) {
+            this.position = position;
+            this.chapterInfo = chapterInfo;
+            this.chapterTitle = chapterTitle;
+            this.downloadResult = downloadResult;
         }
     }
     
+    /**
+     * Downloads images and returns both successful downloads and failed URLs/filenames.
+     * Images that still fail after the retries of HttpClientService are queued in the deferred
+     * retry queue instead of blocking the job; they are returned as pending retries.
+     * 
+     * @param imageUrls List of image URLs to download
+     * @param chapterImagesDir Directory to save images
+     * @param chapterNumber Chapter number
+     * @param currentChapterIndex Current chapter index
+     * @param totalChapters Total number of chapters
+     * @param retryQueue Queue for failed downloads (null to report failures immediately)
+     * @return A DownloadResult containing successful downloads, failed URLs/filenames and pending retries
+     */
     private DownloadResult downloadImages(List<String> imageUrls, Path chapterImagesDir, int chapterNumber, 
-            int currentChapterIndex, int totalChapters) {
+            int currentChapterIndex, int totalChapters, DeferredRetryQueue retryQueue) {
         int totalImages = imageUrls.size();
         if (totalImages == 0) {
             logger.finest("downloadImages: No images to download for chapter " + chapterNumber);
-            return new DownloadResult(new ArrayList<>(), new ArrayList<>(), new java.util.HashMap<>());
+            return new DownloadResult(new ArrayList<>(), new java.util.HashMap<>(), new ArrayList<>(), 
+                new java.util.HashMap<>(), new ArrayList<>());
         }
         
         logger.finest("downloadImages: Starting download of " + totalImages + " images for chapter " + 
-            chapterNumber + " using " + maxConcurrentImageDownloads + " concurrent downloads");
+            chapterNumber + " using up to " + maxConcurrentImageDownloads + " concurrent downloads (" +
+            downloadEngine.getMaxConcurrentPerHost() + " per host)");
         long downloadStartTime = System.currentTimeMillis();
         
-        // Create thread pool for this chapter
-        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentImageDownloads);
+        // Submit to the shared download engine (virtual threads, per-host limits)
         List<Future<ImageDownloadResult>> futures = new ArrayList<>();
         Map<String, Integer> filenameCounters = new ConcurrentHashMap<>();
+        List<ImageDownloadTask> tasks = new ArrayList<>();
         
         try {
             // Submit all download tasks
-            logger.finest("downloadImages: Submitting " + totalImages + " download tasks to thread pool");
+            logger.finest("downloadImages: Submitting " + totalImages + " download tasks to download engine");
             for (int i = 0; i < imageUrls.size(); i++) {
+                // Filenames are generated in image order, before any download starts
+                String filename = generateImageFilename(imageUrls.get(i), i, filenameCounters);
                 ImageDownloadTask task = new ImageDownloadTask(
-                    i, imageUrls.get(i), chapterImagesDir, chapterNumber,
+                    i, imageUrls.get(i), filename, chapterImagesDir, chapterNumber,
                     totalImages, currentChapterIndex, totalChapters, filenameCounters);
-                futures.add(executor.submit(task));
+                tasks.add(task);
+                // This book's permit is taken before the host permit, see DownloadEngine.submit
+                futures.add(downloadEngine.submit(encodeUrl(imageUrls.get(i)), imageDownloadPermits, task));
                 logger.finest("downloadImages: Submitted task " + (i + 1) + "/" + totalImages + " for URL: " + imageUrls.get(i));
             }
             
@@ -1243,6 +1770,7 @@ public class BookJob {
             List<ImageDownloadResult> results = new ArrayList<>();
             List<String> failedUrls = new ArrayList<>();
             java.util.Map<String, String> failedUrlToFilename = new java.util.HashMap<>();
+            List<PendingRetry> pendingRetries = new ArrayList<>();
             
             for (int i = 0; i < futures.size(); i++) {
                 Future<ImageDownloadResult> future = futures.get(i);
@@ -1267,18 +1795,12 @@ public class BookJob {
                     logger.severe("This may indicate a network issue or the server is not responding");
                     // Cancel the future to free resources
                     future.cancel(true);
-                    // Generate expected filename for failed download
-                    String expectedFilename = generateImageFilename(imageUrl, i, filenameCounters);
-                    failedUrlToFilename.put(imageUrl, expectedFilename);
                     results.add(new ImageDownloadResult(i, null, false, imageUrl));
                 } catch (ExecutionException e) {
                     logger.severe("Image download task failed: " + e.getCause().getMessage() + " for URL: " + imageUrl);
                     if (e.getCause() != null) {
                         logger.log(Level.SEVERE, "Exception cause:", e.getCause());
                     }
-                    // Generate expected filename for failed download
-                    String expectedFilename = generateImageFilename(imageUrl, i, filenameCounters);
-                    failedUrlToFilename.put(imageUrl, expectedFilename);
                     results.add(new ImageDownloadResult(i, null, false, imageUrl));
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -1290,61 +1812,21 @@ public class BookJob {
                     break;
                 }
                 
-                // If download failed, wait 5 minutes and retry once
+                // If download failed, hand it over to the deferred retry queue and move on
                 if (!success) {
-                    failedUrls.add(imageUrl);
-                    logger.warning("Image download failed, will retry after 5 minutes: " + imageUrl);
-                    System.err.println("WARNING: Image download failed for chapter " + chapterNumber + 
-                        ", waiting 5 minutes before retry: " + imageUrl);
-                    
-                    try {
-                        logger.info("Waiting 5 minutes before retrying failed image download...");
-                        System.err.println("Waiting 5 minutes before retrying failed image download...");
-                        Thread.sleep(5 * 60 * 1000); // 5 minutes
-                        
-                        // Retry the download
-                        logger.info("Retrying image download after 5 minute wait: " + imageUrl);
-                        System.err.println("Retrying image download: " + imageUrl);
-                        byte[] imageData = httpClientService.downloadBinary(encodeUrl(imageUrl));
-                        
-                        if (imageData != null) {
-                            // Convert WebP to JPEG if necessary
-                            byte[] processedImageData = convertWebPToJpeg(imageData);
-                            
-                            // Generate filename
-                            String filename;
-                            synchronized (filenameCounters) {
-                                filename = generateImageFilename(imageUrl, i, filenameCounters);
-                            }
-                            String finalFilename = updateFilenameForJpeg(filename);
-                            Path imageFile = chapterImagesDir.resolve(finalFilename);
-                            
-                            // Write file
-                            synchronized (filenameCounters) {
-                                if (!Files.exists(imageFile)) {
-                                    Files.write(imageFile, processedImageData);
-                                    logger.info("Successfully downloaded image on retry: " + finalFilename + " from " + imageUrl);
-                                    System.err.println("SUCCESS: Image downloaded on retry: " + imageUrl);
-                                    // Update result
-                                    results.set(i, new ImageDownloadResult(i, imageFile, true, imageUrl));
-                                    failedUrls.remove(imageUrl);
-                                } else {
-                                    logger.info("Image file already exists on retry: " + finalFilename);
-                                    results.set(i, new ImageDownloadResult(i, imageFile, true, imageUrl));
-                                    failedUrls.remove(imageUrl);
-                                }
-                            }
-                        } else {
-                            logger.severe("Retry also failed for image: " + imageUrl);
-                            System.err.println("ERROR: Retry also failed for image: " + imageUrl);
-                        }
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        logger.severe("Interrupted during 5-minute wait for retry");
-                        System.err.println("ERROR: Interrupted during 5-minute wait for retry");
-                    } catch (Exception retryException) {
-                        logger.severe("Exception during retry: " + retryException.getMessage());
-                        System.err.println("ERROR: Exception during retry: " + retryException.getMessage());
+                    ImageDownloadTask task = tasks.get(i);
+                    if (retryQueue != null) {
+                        logger.warning("Image download failed, deferring retry: " + imageUrl);
+                        System.err.println("WARNING: Image download failed for chapter " + chapterNumber + 
+                            ", retrying in the background: " + imageUrl);
+                        CompletableFuture<Path> retry = retryQueue.enqueue(encodeUrl(imageUrl), () -> {
+                            ImageDownloadResult retryResult = task.call();
+                            return retryResult.success ? retryResult.imageFile : null;
+                        });
+                        pendingRetries.add(new PendingRetry(i, imageUrl, task.filename, retry));
+                    } else {
+                        failedUrls.add(imageUrl);
+                        failedUrlToFilename.put(imageUrl, task.filename);
                     }
                 }
             }
@@ -1352,22 +1834,25 @@ public class BookJob {
             // Sort results by original index to preserve order
             results.sort(Comparator.comparingInt(r -> r.originalIndex));
             
-            // Extract successfully downloaded images in order and collect final failed URLs
+            // Extract successfully downloaded images in order (failures are in failedUrls or pendingRetries)
             List<Path> downloadedImages = new ArrayList<>();
-            List<String> finalFailedUrls = new ArrayList<>();
+            java.util.Map<Integer, Path> downloadedByIndex = new java.util.TreeMap<>();
+            java.util.Map<String, ImageDimensions> dimensionsByName = new java.util.LinkedHashMap<>();
             int successCount = 0;
             int failureCount = 0;
             for (ImageDownloadResult result : results) {
                 if (result.success && result.imageFile != null) {
                     downloadedImages.add(result.imageFile);
+                    downloadedByIndex.put(result.originalIndex, result.imageFile);
+                    if (result.dimensions != null) {
+                        dimensionsByName.put(result.imageFile.getFileName().toString(), result.dimensions);
+                    }
                     successCount++;
                 } else {
                     failureCount++;
-                    if (result.imageUrl != null) {
-                        finalFailedUrls.add(result.imageUrl);
-                    }
                 }
             }
+            recordImageDimensions(chapterImagesDir, dimensionsByName);
             
             long totalDuration = System.currentTimeMillis() - downloadStartTime;
             logger.finest("downloadImages: Completed chapter " + chapterNumber + 
@@ -1376,30 +1861,25 @@ public class BookJob {
             logger.info("Downloaded " + successCount + "/" + totalImages + " images for chapter " + 
                 chapterNumber + " in " + totalDuration + "ms");
             
-            if (!finalFailedUrls.isEmpty()) {
-                logger.warning("Failed to download " + finalFailedUrls.size() + " images for chapter " + chapterNumber);
-                for (String failedUrl : finalFailedUrls) {
+            if (!failedUrls.isEmpty()) {
+                logger.warning("Failed to download " + failedUrls.size() + " images for chapter " + chapterNumber);
+                for (String failedUrl : failedUrls) {
                     logger.warning("  Failed URL: " + failedUrl);
                 }
             }
+            if (!pendingRetries.isEmpty()) {
+                logger.warning(pendingRetries.size() + " images of chapter " + chapterNumber + 
+                    " are waiting in the deferred retry queue");
+            }
             
-            return new DownloadResult(downloadedImages, finalFailedUrls, failedUrlToFilename);
+            return new DownloadResult(downloadedImages, downloadedByIndex, failedUrls, failedUrlToFilename, pendingRetries);
             
         } finally {
-            // Shutdown executor
-            logger.finest("downloadImages: Shutting down executor for chapter " + chapterNumber);
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    logger.warning("downloadImages: Executor did not terminate within 60s, forcing shutdown");
-                    executor.shutdownNow();
-                } else {
-                    logger.finest("downloadImages: Executor terminated successfully");
+            // Nothing left running for this chapter: cancel tasks that were abandoned (timeout, interrupt)
+            for (Future<ImageDownloadResult> future : futures) {
+                if (!future.isDone()) {
+                    future.cancel(true);
                 }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-                logger.warning("downloadImages: Interrupted while waiting for executor shutdown");
             }
         }
     }
@@ -1584,6 +2064,46 @@ public class BookJob {
      * @return true if the book file exists, false otherwise
      */
     private boolean bookFileExists(int chapterStart, int chapterEnd) {
+        return Files.exists(bookFilePath(chapterStart, chapterEnd));
+    }
+    
+    /**
+     * Finds the EPUB of an earlier run that new chapters can be appended to: the existing file named
+     * for the longest range from the first chapter, if it was written by Web2Book.
+     * 
+     * @param chapters The chapters of the book, sorted by number
+     * @return The EPUB, or null to build the whole book
+     */
+    private ExistingEpub findAppendableEpub(List<ChapterInfo> chapters) {
+        int chapterStart = chapters.get(0).getChapterNumber();
+        for (int i = chapters.size() - 1; i >= 0; i--) {
+            Path bookFile = bookFilePath(chapterStart, chapters.get(i).getChapterNumber());
+            if (Files.exists(bookFile)) {
+                try {
+                    ExistingEpub existingEpub = ExistingEpub.open(bookFile);
+                    if (existingEpub.isFixedLayout() != epubFixedLayout) {
+                        logger.warning("Cannot append to " + bookFile.getFileName() + ", building the whole book: " + 
+                            "its layout differs from epub.layout");
+                        return null;
+                    }
+                    return existingEpub;
+                } catch (IOException e) {
+                    logger.warning("Cannot append to " + bookFile.getFileName() + ", building the whole book: " + e.getMessage());
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the book file for the given chapter range.
+     * 
+     * @param chapterStart The starting chapter number
+     * @param chapterEnd The ending chapter number
+     * @return The path of the book file in the output directory
+     */
+    private Path bookFilePath(int chapterStart, int chapterEnd) {
         // Create adjusted properties for this book's chapter range
         Properties adjustedProps = new Properties(bookProps);
         adjustedProps.setProperty("chapter.start", String.valueOf(chapterStart));
@@ -1603,9 +2123,7 @@ public class BookJob {
         String extension = outputFormat.equals("pdf") ? ".pdf" : ".epub";
         String fullFilename = sanitizedFilename + extension;
         
-        // Check if file exists
-        Path bookFile = outputDir.resolve(fullFilename);
-        return Files.exists(bookFile);
+        return outputDir.resolve(fullFilename);
     }
     
     private void cleanup(Path tmpImagesDir, Path tmpHtmlDir) {
@@ -1633,6 +2151,17 @@ public class BookJob {
             } catch (IOException e) {
                 logger.warning("Failed to delete temporary images directory: " + e.getMessage());
             }
+            
+            // PDF chapter fragments hold a copy of every image
+            Path fragmentsDir = tempDir.resolve("pdf-fragments");
+            try {
+                if (Files.exists(fragmentsDir)) {
+                    deleteDirectory(fragmentsDir);
+                    logger.info("Deleted PDF fragment cache directory");
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to delete PDF fragment cache directory: " + e.getMessage());
+            }
         }
     }
     
@@ -1811,70 +2340,103 @@ public class BookJob {
     }
 
     /**
-     * Converts WebP image data to JPEG format.
-     * Uses TwelveMonkeys ImageIO library for WebP support.
+     * Checks if a file is a WebP image (RIFF header: "RIFF" at offset 0, "WEBP" at offset 8).
+     * Only the first 12 bytes are read.
      * 
-     * @param imageData The original image data (may be WebP or other format)
-     * @return Converted JPEG image data, or original data if not WebP or conversion fails
+     * @param file The file to check
+     * @return true if the file starts with a WebP header
      */
-    private byte[] convertWebPToJpeg(byte[] imageData) {
-        if (imageData == null || imageData.length < 12) {
-            return imageData;
-        }
-        
-        // Check if it's a WebP image (RIFF header: "RIFF" at offset 0, "WEBP" at offset 8)
-        boolean isWebP = imageData.length >= 12 &&
-            imageData[0] == 'R' && imageData[1] == 'I' && imageData[2] == 'F' && imageData[3] == 'F' &&
-            imageData[8] == 'W' && imageData[9] == 'E' && imageData[10] == 'B' && imageData[11] == 'P';
-        
-        if (!isWebP) {
-            return imageData; // Not WebP, return original
+    private boolean isWebP(Path file) {
+        byte[] header = new byte[12];
+        try (java.io.InputStream in = Files.newInputStream(file)) {
+            if (in.readNBytes(header, 0, header.length) < header.length) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
         }
-        
+        return header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F' &&
+            header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P';
+    }
+
+    /**
+     * Converts a WebP image file to a JPEG file.
+     * Uses TwelveMonkeys ImageIO library for WebP support.
+     * 
+     * @param webpFile The WebP file to read
+     * @param jpegFile The JPEG file to write
+     * @return true if the JPEG file was written, false if the original file should be kept
+     */
+    private boolean convertWebPToJpeg(Path webpFile, Path jpegFile) {
         try {
             logger.finest("Converting WebP image to JPEG");
             
             // Read WebP image using ImageIO (TwelveMonkeys library provides WebP support)
-            ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
-            BufferedImage image = ImageIO.read(bais);
+            BufferedImage image;
+            try (java.io.InputStream in = Files.newInputStream(webpFile)) {
+                image = ImageIO.read(in);
+            }
             
             if (image == null) {
-                logger.warning("Failed to read WebP image, returning original data");
-                return imageData;
+                logger.warning("Failed to read WebP image, keeping original data");
+                return false;
             }
             
             // Convert to JPEG with quality settings
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            
-            // Get JPEG writer
-            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            if (writer != null) {
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                if (param.canWriteCompressed()) {
-                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                    param.setCompressionQuality(0.9f); // High quality JPEG
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(jpegFile.toFile())) {
+                // Get JPEG writer
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+                if (writer != null) {
+                    ImageWriteParam param = writer.getDefaultWriteParam();
+                    if (param.canWriteCompressed()) {
+                        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                        param.setCompressionQuality(0.9f); // High quality JPEG
+                    }
+                    
+                    writer.setOutput(ios);
+                    writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
+                    writer.dispose();
+                } else {
+                    // Fallback to simple ImageIO.write
+                    ImageIO.write(image, "jpg", ios);
                 }
-                
-                ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
-                writer.setOutput(ios);
-                writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
-                writer.dispose();
-                ios.close();
-            } else {
-                // Fallback to simple ImageIO.write
-                ImageIO.write(image, "jpg", baos);
             }
             
-            byte[] jpegData = baos.toByteArray();
-            
-            logger.info("Successfully converted WebP image to JPEG (" + imageData.length + 
-                " bytes -> " + jpegData.length + " bytes)");
+            logger.info("Successfully converted WebP image to JPEG (" + Files.size(webpFile) + 
+                " bytes -> " + Files.size(jpegFile) + " bytes)");
             
-            return jpegData;
+            return true;
         } catch (Exception e) {
             logger.warning("Failed to convert WebP to JPEG: " + e.getMessage() + ", using original format");
             logger.log(Level.FINEST, "WebP conversion error details", e);
-            return imageData; // Return original on failure
+            return false; // Keep original on failure
+        }
+    }
+
+    /**
+     * Returns the lowercase extension of a filename, without dot ("jpg" if there is none).
+     */
+    private static String extensionOf(String filename) {
+        int dotIndex = filename.lastIndexOf('.');
+        if (dotIndex < 0 || dotIndex == filename.length() - 1) {
+            return "jpg";
+        }
+        return filename.substring(dotIndex + 1).toLowerCase();
+    }
+
+    /**
+     * Moves a complete file to its final name in one step, so the final name never
+     * points to a partially written file.
+     * 
+     * @param source The complete temporary file
+     * @param target The final file (in the same directory)
+     * @throws IOException If the file cannot be moved
+     */
+    private void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        } catch (java.nio.file.AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
         }
     }
 
@@ -0,0 +1,151 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-24
+package org.web2book.core;
+
+import org.web2book.html.HtmlExtractor;
+import org.web2book.model.ChapterInfo;
+import org.web2book.net.HttpClientService;
+import org.web2book.net.RequestContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Fetches chapter pages ahead of time so that the HTML round-trip and image URL
+ * extraction of the next chapter overlap with the image downloads of the current one.
+ * A prefetch is scheduled with a delay (the thinking time), so requests to the chapter
+ * pages stay spaced out exactly as in sequential mode.
+ */
+public class ChapterPrefetcher {
+    private final HttpClientService httpClientService;
+    private final RequestContext requestContext;
+    private final Properties bookProps;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Integer, Future<ChapterPage>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * A fetched chapter page with its extracted image URLs.
+     * html is null if the page could not be fetched.
+     */
+    public static class ChapterPage {
+        final String html;
+        final List<String> imageUrls;
+
+        ChapterPage(String html, List<String> imageUrls) {
+            this.html = html;
+            this.imageUrls = imageUrls;
+        }
+    }
+
+    public ChapterPrefetcher(HttpClientService httpClientService, RequestContext requestContext,
+            Properties bookProps, Logger logger) {
+        this.httpClientService = httpClientService;
+        this.requestContext = requestContext;
+        this.bookProps = bookProps;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "web2book-chapter-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the page of a chapter to be fetched after the given delay.
+     * Does nothing if a prefetch is already pending for this chapter.
+     *
+     * @param chapterInfo The chapter to prefetch
+     * @param delayMs Delay before the HTML request is sent (milliseconds)
+     */
+    public void prefetch(ChapterInfo chapterInfo, long delayMs) {
+        pending.computeIfAbsent(chapterInfo.getChapterNumber(), chapterNumber -> {
+            logger.info("Prefetching chapter " + chapterNumber + " in " + delayMs + " ms");
+            // The scheduler thread only starts the async request, it never waits for the response.
+            // Every failure completes the page, so take() never waits for a request that was not sent
+            CompletableFuture<ChapterPage> page = new CompletableFuture<>();
+            try {
+                scheduler.schedule(() -> {
+                    try {
+                        httpClientService.getHtmlAsync(chapterInfo.getFullUrl(), requestContext)
+                            .thenApply(this::toChapterPage)
+                            .whenComplete((result, error) -> {
+                                if (error != null) {
+                                    page.completeExceptionally(error);
+                                } else {
+                                    page.complete(result);
+                                }
+                            });
+                    } catch (Throwable e) {
+                        page.completeExceptionally(e);
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                page.completeExceptionally(e);
+            }
+            return page;
+        });
+    }
+
+    /**
+     * Returns the page of a chapter, waiting for a pending prefetch if there is one,
+     * or fetching it on the calling thread otherwise.
+     *
+     * @param chapterInfo The chapter to get
+     * @return The fetched chapter page (html is null if the fetch failed)
+     * @throws InterruptedException If interrupted while waiting for the prefetch
+     */
+    public ChapterPage take(ChapterInfo chapterInfo) throws InterruptedException {
+        Future<ChapterPage> future = pending.remove(chapterInfo.getChapterNumber());
+        if (future == null) {
+            return fetch(chapterInfo);
+        }
+
+        try {
+            long waitStartTime = System.currentTimeMillis();
+            ChapterPage page = future.get();
+            logger.finest("ChapterPrefetcher: waited " + (System.currentTimeMillis() - waitStartTime) +
+                "ms for prefetched chapter " + chapterInfo.getChapterNumber());
+            return page;
+        } catch (ExecutionException | CancellationException e) {
+            logger.warning("Prefetch failed for chapter " + chapterInfo.getChapterNumber() + ": " +
+                e.getMessage() + ". Fetching it again.");
+            return fetch(chapterInfo);
+        }
+    }
+
+    /**
+     * Cancels pending prefetches and stops the scheduler thread.
+     */
+    public void shutdown() {
+        for (Future<ChapterPage> future : pending.values()) {
+            future.cancel(true);
+        }
+        pending.clear();
+        scheduler.shutdownNow();
+    }
+
+    private ChapterPage fetch(ChapterInfo chapterInfo) {
+        return toChapterPage(httpClientService.getHtml(chapterInfo.getFullUrl(), requestContext));
+    }
+
+    private ChapterPage toChapterPage(String html) {
+        if (html == null || httpClientService.isCloudflareChallenge(html)) {
+            // Image extraction is pointless here, the caller handles both cases
+            return new ChapterPage(html, new ArrayList<>());
+        }
+        return new ChapterPage(html, HtmlExtractor.extractImageUrls(html, bookProps));
+    }
+}
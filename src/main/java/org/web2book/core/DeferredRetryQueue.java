@@ -0,0 +1,137 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-25
+package org.web2book.core;
+
+import org.web2book.net.DownloadEngine;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retries failed image downloads in the background with exponential backoff.
+ * A retry is scheduled on a timer and then run on the download engine, so no thread
+ * sleeps while waiting and the book job keeps processing the next chapters.
+ * The caller gets a CompletableFuture completed with the image file, or with null
+ * once all attempts have failed.
+ */
+public class DeferredRetryQueue {
+    private final DownloadEngine downloadEngine;
+    private final Semaphore jobPermits;
+    private final Logger logger;
+    private final long initialDelayMs;
+    private final int maxAttempts;
+    private final ScheduledExecutorService scheduler;
+    private final Map<CompletableFuture<Path>, Future<?>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param downloadEngine Engine running the retry attempts (per-host limits apply)
+     * @param jobPermits Download permits of the book job, taken before the host permit (null for none)
+     * @param logger Logger for retry diagnostics
+     * @param initialDelayMs Delay before the first retry, doubled after each failed attempt
+     * @param maxAttempts Number of retry attempts before giving up
+     */
+    public DeferredRetryQueue(DownloadEngine downloadEngine, Semaphore jobPermits, Logger logger, long initialDelayMs,
+            int maxAttempts) {
+        this.downloadEngine = downloadEngine;
+        this.jobPermits = jobPermits;
+        this.logger = logger;
+        this.initialDelayMs = initialDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "web2book-image-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a failed download for retry.
+     *
+     * @param url The URL being downloaded (used for per-host limits and logging)
+     * @param attempt One download attempt, returning the image file or null on failure
+     * @return Future completed with the image file, or null if every attempt failed
+     */
+    public CompletableFuture<Path> enqueue(String url, Callable<Path> attempt) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        if (maxAttempts <= 0) {
+            result.complete(null);
+            return result;
+        }
+        logger.info("Queued image for retry in " + initialDelayMs + " ms: " + url);
+        schedule(url, attempt, result, 1, initialDelayMs);
+        return result;
+    }
+
+    /**
+     * @return Number of retries not finished yet
+     */
+    public int getPendingCount() {
+        pending.keySet().removeIf(CompletableFuture::isDone);
+        return pending.size();
+    }
+
+    /**
+     * Cancels pending retries (their futures complete with null) and stops the timer thread.
+     */
+    public void shutdown() {
+        for (Map.Entry<CompletableFuture<Path>, Future<?>> entry : pending.entrySet()) {
+            entry.getValue().cancel(true);
+            entry.getKey().complete(null);
+        }
+        pending.clear();
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(String url, Callable<Path> attempt, CompletableFuture<Path> result, int attemptNumber, long delayMs) {
+        try {
+            // The timer only hands the attempt over to the download engine, it never blocks
+            Future<?> scheduled = scheduler.schedule(
+                () -> pending.put(result, downloadEngine.submit(url, jobPermits, () -> runAttempt(url, attempt, result, attemptNumber, delayMs))),
+                delayMs, TimeUnit.MILLISECONDS);
+            pending.put(result, scheduled);
+        } catch (Exception e) {
+            // Queue already shut down
+            pending.remove(result);
+            result.complete(null);
+        }
+    }
+
+    private Void runAttempt(String url, Callable<Path> attempt, CompletableFuture<Path> result, int attemptNumber, long delayMs) {
+        Path file = null;
+        try {
+            logger.info("Retrying image download (attempt " + attemptNumber + "/" + maxAttempts + "): " + url);
+            file = attempt.call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Exception during image retry for " + url + ": " + e.getMessage(), e);
+        }
+
+        if (file != null) {
+            logger.info("Successfully downloaded image on retry " + attemptNumber + ": " + url);
+            System.err.println("SUCCESS: Image downloaded on retry: " + url);
+            pending.remove(result);
+            result.complete(file);
+        } else if (attemptNumber < maxAttempts && !Thread.currentThread().isInterrupted()) {
+            long nextDelayMs = delayMs * 2;
+            logger.warning("Retry " + attemptNumber + "/" + maxAttempts + " failed, next attempt in " + nextDelayMs + " ms: " + url);
+            schedule(url, attempt, result, attemptNumber + 1, nextDelayMs);
+        } else {
+            logger.severe("All " + maxAttempts + " retries failed for image: " + url);
+            System.err.println("ERROR: All retries failed for image: " + url);
+            pending.remove(result);
+            result.complete(null);
+        }
+        return null;
+    }
+}
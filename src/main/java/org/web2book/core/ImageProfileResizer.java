@@ -0,0 +1,357 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-27
+package org.web2book.core;
+
+import org.web2book.model.ChapterContent;
+import org.web2book.util.ImageDimensions;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Resamples chapter images for an output device before they go into the PDF or EPUB.
+ * Sources are often 1200-2000 px wide while the target device shows far fewer pixels, so
+ * downscaling makes books several times smaller. Images are resized in parallel and cached in
+ * &lt;profilesDir&gt;/&lt;profile&gt;/&lt;chapter&gt;/ with the same filenames as the originals, so the
+ * chapter XHTML keeps pointing to the right files. A cached image is reused while it is newer
+ * than its source.
+ */
+public class ImageProfileResizer {
+
+    /**
+     * A device profile: target pixel width and color mode.
+     */
+    public static class Profile {
+        private final String name;
+        private final int targetWidth;
+        private final boolean grayscale;
+
+        Profile(String name, int targetWidth, boolean grayscale) {
+            this.name = name;
+            this.targetWidth = targetWidth;
+            this.grayscale = grayscale;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getTargetWidth() {
+            return targetWidth;
+        }
+
+        public boolean isGrayscale() {
+            return grayscale;
+        }
+    }
+
+    // Known profiles: A4 width (8.27 in) at 150 dpi, common phone width, 6" e-ink readers (758 x 1024, 16 gray levels)
+    private static final Map<String, Profile> PROFILES = new LinkedHashMap<>();
+    static {
+        PROFILES.put("tablet-150dpi", new Profile("tablet-150dpi", 1240, false));
+        PROFILES.put("phone", new Profile("phone", 1080, false));
+        PROFILES.put("e-ink-6in", new Profile("e-ink-6in", 758, true));
+    }
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final Profile profile;
+    private final Path profileDir;
+    private final int threads;
+    private final boolean recordDimensions;
+    private final Logger logger;
+
+    /**
+     * @param profile The device profile
+     * @param profilesDir Directory holding the cached images of all profiles
+     * @param threads Number of images resized in parallel
+     * @param recordDimensions true to record the size of the images written (fixed-layout EPUB)
+     * @param logger Logger for resize diagnostics
+     */
+    public ImageProfileResizer(Profile profile, Path profilesDir, int threads, boolean recordDimensions, Logger logger) {
+        this.profile = profile;
+        this.profileDir = profilesDir.resolve(profile.getName());
+        this.threads = Math.max(1, threads);
+        this.recordDimensions = recordDimensions;
+        this.logger = logger;
+    }
+
+    /**
+     * Looks up a profile by name.
+     *
+     * @param name The profile name (output.profile), "original" or empty for no resizing
+     * @param logger Logger used to report an unknown name
+     * @return The profile, or null to keep images as downloaded
+     */
+    public static Profile forName(String name, Logger logger) {
+        if (name == null || name.trim().isEmpty() || "original".equalsIgnoreCase(name.trim())) {
+            return null;
+        }
+        Profile profile = PROFILES.get(name.trim().toLowerCase());
+        if (profile == null) {
+            logger.warning("Unknown output profile '" + name.trim() + "', images are kept as downloaded. Known profiles: " +
+                String.join(", ", PROFILES.keySet()));
+        }
+        return profile;
+    }
+
+    /**
+     * Resizes the images of the chapters for the profile.
+     * Images that cannot be resized (missing, unreadable, unknown format) keep their original file.
+     *
+     * @param chapters The chapters, with the downloaded images
+     * @return The chapters in the same order, with the images of the profile
+     */
+    public List<ChapterContent> resize(List<ChapterContent> chapters) {
+        long startTime = System.currentTimeMillis();
+        AtomicInteger resized = new AtomicInteger();
+        AtomicInteger cached = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        // Sizes of the images written, known from the decoded image; recorded once per chapter
+        Map<Path, ImageDimensions> writtenDimensions = recordDimensions ? new ConcurrentHashMap<>() : null;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "web2book-image-resize-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<List<Future<Path>>> futuresByChapter = new ArrayList<>();
+            for (ChapterContent chapter : chapters) {
+                Path chapterDir = profileDir.resolve(String.valueOf(chapter.getInfo().getChapterNumber()));
+                List<Future<Path>> futures = new ArrayList<>();
+                for (Path source : chapter.getImageFiles()) {
+                    Path target = chapterDir.resolve(source.getFileName().toString());
+                    futures.add(executor.submit(() -> resizeImage(source, target, resized, cached, unchanged, writtenDimensions)));
+                }
+                futuresByChapter.add(futures);
+            }
+
+            List<ChapterContent> result = new ArrayList<>(chapters.size());
+            for (int i = 0; i < chapters.size(); i++) {
+                ChapterContent chapter = chapters.get(i);
+                List<Path> imageFiles = new ArrayList<>(chapter.getImageFiles().size());
+                List<Future<Path>> futures = futuresByChapter.get(i);
+                for (int j = 0; j < futures.size(); j++) {
+                    Path original = chapter.getImageFiles().get(j);
+                    try {
+                        imageFiles.add(futures.get(j).get());
+                    } catch (ExecutionException e) {
+                        logger.warning("Failed to resize image " + original + ", using original: " +
+                            (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+                        imageFiles.add(original);
+                    }
+                }
+                result.add(new ChapterContent(chapter.getInfo(), imageFiles, chapter.getChapterHtmlFile()));
+                if (writtenDimensions != null) {
+                    recordDimensions(profileDir.resolve(String.valueOf(chapter.getInfo().getChapterNumber())),
+                        imageFiles, writtenDimensions);
+                }
+            }
+
+            String msg = "Output profile " + profile.getName() + " (" + profile.getTargetWidth() + " px" +
+                (profile.isGrayscale() ? ", grayscale" : "") + "): " + resized.get() + " images resized, " +
+                cached.get() + " reused from cache, " + unchanged.get() + " kept as-is in " +
+                (System.currentTimeMillis() - startTime) + " ms";
+            logger.info(msg);
+            System.out.println(msg);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while resizing images, using original images");
+            return chapters;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Records the sizes of the images of a chapter written in the profile directory, in one write.
+     */
+    private void recordDimensions(Path chapterDir, List<Path> imageFiles, Map<Path, ImageDimensions> writtenDimensions) {
+        Map<String, ImageDimensions> dimensionsByName = new LinkedHashMap<>();
+        for (Path imageFile : imageFiles) {
+            ImageDimensions dimensions = writtenDimensions.get(imageFile);
+            if (dimensions != null) {
+                dimensionsByName.put(imageFile.getFileName().toString(), dimensions);
+            }
+        }
+        try {
+            ImageDimensions.recordAll(chapterDir, dimensionsByName);
+        } catch (IOException e) {
+            logger.warning("Failed to record image dimensions in " + chapterDir + ": " + e.getMessage());
+        }
+    }
+
+    private Path resizeImage(Path source, Path target, AtomicInteger resized, AtomicInteger cached,
+            AtomicInteger unchanged, Map<Path, ImageDimensions> writtenDimensions) throws IOException {
+        if (!Files.exists(source)) {
+            return source; // Failed download, the builders add a placeholder
+        }
+        if (Files.exists(target) &&
+                Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+            cached.incrementAndGet();
+            return target;
+        }
+
+        String format = formatOf(source);
+        BufferedImage image = format != null ? ImageIO.read(source.toFile()) : null;
+        if (image == null) {
+            unchanged.incrementAndGet();
+            return source; // Format ImageIO cannot read or write
+        }
+        Files.createDirectories(target.getParent());
+        if (image.getWidth() <= profile.getTargetWidth() && !profile.isGrayscale()) {
+            // Already small enough: cache the original, so later runs do not decode it again
+            linkOrCopy(source, target);
+            if (writtenDimensions != null) {
+                writtenDimensions.put(target, new ImageDimensions(image.getWidth(), image.getHeight()));
+            }
+            unchanged.incrementAndGet();
+            return target;
+        }
+
+        BufferedImage output = scale(image);
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            write(output, format, partFile);
+            if (!profile.isGrayscale() && Files.size(partFile) >= Files.size(source)) {
+                // Resampling added detail the encoder cannot compress (e.g. anti-aliased PNG):
+                // cache the original instead. Grayscale profiles keep their output, the original
+                // would put a color image in the profile
+                Files.delete(partFile);
+                linkOrCopy(source, target);
+                if (writtenDimensions != null) {
+                    writtenDimensions.put(target, new ImageDimensions(image.getWidth(), image.getHeight()));
+                }
+                unchanged.incrementAndGet();
+                return target;
+            }
+            try {
+                Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+        // Sizes of the resized images, for fixed-layout EPUB pages
+        if (writtenDimensions != null) {
+            writtenDimensions.put(target, new ImageDimensions(output.getWidth(), output.getHeight()));
+        }
+        resized.incrementAndGet();
+        return target;
+    }
+
+    /**
+     * Scales an image down to the target width, halving the size step by step so that
+     * bilinear interpolation keeps thin lines and text readable, and converts it to the
+     * profile color mode. Smaller images are only converted.
+     */
+    private BufferedImage scale(BufferedImage image) {
+        int imageType = profile.isGrayscale() ? BufferedImage.TYPE_BYTE_GRAY :
+            (image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int targetWidth = Math.min(profile.getTargetWidth(), image.getWidth());
+        int targetHeight = Math.max(1, (int) Math.round((double) image.getHeight() * targetWidth / image.getWidth()));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            if (width / 2 >= targetWidth) {
+                width /= 2;
+                height = Math.max(1, height / 2);
+            } else {
+                width = targetWidth;
+                height = targetHeight;
+            }
+            BufferedImage step = new BufferedImage(width, height, imageType);
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private static void write(BufferedImage image, String format, Path file) throws IOException {
+        if (!"jpeg".equals(format)) {
+            if (!ImageIO.write(image, format, file.toFile())) {
+                throw new IOException("No " + format + " writer available");
+            }
+            return;
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer available");
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * @return The ImageIO format to write back with the same extension, or null if not supported
+     */
+    private static String formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "jpeg";
+        }
+        if (name.endsWith(".png")) {
+            return "png";
+        }
+        if (name.endsWith(".gif")) {
+            return "gif";
+        }
+        if (name.endsWith(".bmp")) {
+            return "bmp";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,233 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-26
+package org.web2book.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed image store shared by all book jobs.
+ * Each image is stored once as objects/&lt;ab&gt;/&lt;sha256&gt;.&lt;ext&gt;, and an append-only index
+ * (index.txt, one "url TAB object" line per image) maps image URLs to stored objects across runs.
+ * Chapter image directories get hard links to the stored objects (or copies when the file system
+ * does not support hard links), so a URL already seen is not downloaded again and identical images
+ * (credits pages, banners) are stored only once.
+ */
+public class ImageStore {
+    private static final String INDEX_FILE = "index.txt";
+    private static final Pattern OBJECT_NAME = Pattern.compile("objects/[0-9a-f]{2}/[0-9a-f]{64}\\.[a-z0-9]+");
+
+    private final Path storeDir;
+    private final Path indexFile;
+    private final Logger logger;
+    private final Map<String, String> urlToObject = new ConcurrentHashMap<>();
+    private final AtomicLong urlHits = new AtomicLong();
+    private final AtomicLong contentHits = new AtomicLong();
+    private final AtomicLong storedObjects = new AtomicLong();
+
+    /**
+     * Opens the store and loads its URL index.
+     *
+     * @param storeDir Root directory of the store (created if needed)
+     * @param logger Logger for store diagnostics
+     * @throws IOException If the store directory cannot be created or the index cannot be read
+     */
+    public ImageStore(Path storeDir, Logger logger) throws IOException {
+        this.storeDir = storeDir;
+        this.indexFile = storeDir.resolve(INDEX_FILE);
+        this.logger = logger;
+        Files.createDirectories(storeDir.resolve("objects"));
+        loadIndex();
+    }
+
+    /**
+     * Creates the store configured in the global properties (image.store.enabled, image.store.dir).
+     * The store is opt-in: it is never pruned, so it keeps every image even after the chapter
+     * images are deleted (delete.images.after.generation only removes the hard links).
+     *
+     * @param globalProps Global properties
+     * @param logger Logger for store diagnostics
+     * @return The store, or null if it is disabled or cannot be opened
+     */
+    public static ImageStore fromProperties(Properties globalProps, Logger logger) {
+        if (!"true".equalsIgnoreCase(globalProps.getProperty("image.store.enabled", "false").trim())) {
+            return null;
+        }
+        Path storeDir = Paths.get(globalProps.getProperty("image.store.dir", "cache/images").trim());
+        try {
+            ImageStore store = new ImageStore(storeDir, logger);
+            logger.info("Image store: " + storeDir.toAbsolutePath() + " (" + store.urlToObject.size() + " known URLs)");
+            return store;
+        } catch (IOException e) {
+            logger.warning("Could not open image store " + storeDir + ", images will not be shared: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored image of a URL.
+     *
+     * @param url The image URL
+     * @return The stored object, or null if the URL was never stored (or its object was deleted)
+     */
+    public Path lookup(String url) {
+        String object = urlToObject.get(url);
+        if (object == null) {
+            return null;
+        }
+        Path objectFile = storeDir.resolve(object);
+        if (!Files.exists(objectFile)) {
+            return null;
+        }
+        urlHits.incrementAndGet();
+        return objectFile;
+    }
+
+    /**
+     * Adds a complete image file to the store and records its URL.
+     * The file is moved into the store, or deleted if an identical image is already stored.
+     *
+     * @param url The image URL
+     * @param completeFile The downloaded (and converted) image, in a temporary location
+     * @param extension Extension of the image, without dot (e.g. "jpg")
+     * @return The stored object
+     * @throws IOException If the file cannot be hashed or moved
+     */
+    public Path put(String url, Path completeFile, String extension) throws IOException {
+        String hash = sha256(completeFile);
+        String object = "objects/" + hash.substring(0, 2) + "/" + hash + "." + extension.toLowerCase();
+        Path objectFile = storeDir.resolve(object);
+
+        if (Files.exists(objectFile)) {
+            contentHits.incrementAndGet();
+            Files.deleteIfExists(completeFile);
+        } else {
+            Files.createDirectories(objectFile.getParent());
+            try {
+                Files.move(completeFile, objectFile, StandardCopyOption.ATOMIC_MOVE);
+                storedObjects.incrementAndGet();
+            } catch (AtomicMoveNotSupportedException e) {
+                // Different file system: copy to a temporary name in the store, then rename
+                Path temp = Files.createTempFile(objectFile.getParent(), hash, ".tmp");
+                Files.copy(completeFile, temp, StandardCopyOption.REPLACE_EXISTING);
+                moveIfAbsent(temp, objectFile);
+                Files.deleteIfExists(completeFile);
+                storedObjects.incrementAndGet();
+            } catch (FileAlreadyExistsException e) {
+                // Stored concurrently by another job
+                contentHits.incrementAndGet();
+                Files.deleteIfExists(completeFile);
+            }
+        }
+
+        if (!object.equals(urlToObject.put(url, object))) {
+            appendToIndex(url, object);
+        }
+        return objectFile;
+    }
+
+    /**
+     * Makes a stored object available under a path of a chapter image directory.
+     * Uses a hard link, falling back to a copy.
+     *
+     * @param objectFile The stored object
+     * @param target The path to create (nothing is done if it already exists)
+     * @throws IOException If neither a link nor a copy can be created
+     */
+    public void linkInto(Path objectFile, Path target) throws IOException {
+        if (Files.exists(target)) {
+            return;
+        }
+        try {
+            Files.createLink(target, objectFile);
+        } catch (FileAlreadyExistsException e) {
+            // Created concurrently
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.finest("ImageStore: hard link not possible for " + target + " (" + e.getMessage() + "), copying");
+            Path temp = target.resolveSibling(target.getFileName() + ".part");
+            Files.copy(objectFile, temp, StandardCopyOption.REPLACE_EXISTING);
+            moveIfAbsent(temp, target);
+        }
+    }
+
+    /**
+     * Logs how many downloads and stored copies the store saved.
+     */
+    public void logStats() {
+        String msg = "Image store: " + urlHits.get() + " images reused by URL, " + contentHits.get() +
+            " duplicate images stored once, " + storedObjects.get() + " new images stored";
+        logger.info(msg);
+        System.out.println(msg);
+    }
+
+    private void loadIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            // Later lines win; an incomplete last line (interrupted run) is ignored
+            int tab = line.indexOf('\t');
+            if (tab > 0 && OBJECT_NAME.matcher(line.substring(tab + 1)).matches()) {
+                urlToObject.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+        }
+    }
+
+    private synchronized void appendToIndex(String url, String object) {
+        try {
+            Files.write(indexFile, (url + "\t" + object + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warning("ImageStore: could not update index for " + url + ": " + e.getMessage());
+        }
+    }
+
+    private static void moveIfAbsent(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(source);
+        } catch (AtomicMoveNotSupportedException e) {
+            if (!Files.exists(target)) {
+                Files.move(source, target);
+            } else {
+                Files.deleteIfExists(source);
+            }
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -12,35 +12,61 @@ import org.web2book.log.LoggerFactory;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Logger;
 
 /**
  * Service for building EPUB files from chapter content.
+ * By default the whole book is held in memory as epublib resources until it is saved; in streaming
+ * mode only file paths are recorded and StreamingEpubWriter copies the files into the EPUB at save time.
  */
 public class EpubBuilderService {
     private final Book book;
+    private final StreamingEpubWriter streamingWriter;
+    private ExistingEpub appendBase; // EPUB the chapters are appended to (null = new book)
     private final String bookTitle;
     private final Logger logger;
     private final java.util.Properties bookProps;
 
     public EpubBuilderService(String bookTitle, Logger logger, java.util.Properties bookProps) {
+        this(bookTitle, logger, bookProps, false, 1);
+    }
+
+    /**
+     * @param bookTitle The book title
+     * @param logger Logger for build diagnostics
+     * @param bookProps Book properties (book.author)
+     * @param streaming true to read chapter files and images from disk only when the EPUB is saved,
+     *                  false to build the book in memory with epublib
+     * @param threads Number of entries the streaming writer compresses in parallel
+     */
+    public EpubBuilderService(String bookTitle, Logger logger, java.util.Properties bookProps, boolean streaming, int threads) {
         this.bookTitle = bookTitle;
         this.logger = logger;
         this.bookProps = bookProps;
-        this.book = new Book();
         
-        // Set metadata
-        Metadata metadata = book.getMetadata();
-        metadata.addTitle(bookTitle);
+        String authorName = bookProps != null ? bookProps.getProperty("book.author", "") : "";
+        if (streaming) {
+            this.book = null;
+            this.streamingWriter = new StreamingEpubWriter(bookTitle, authorName, threads);
+        } else {
+            this.book = new Book();
+            this.streamingWriter = null;
+            
+            // Set metadata
+            Metadata metadata = book.getMetadata();
+            metadata.addTitle(bookTitle);
+            if (!authorName.isEmpty()) {
+                metadata.addAuthor(new Author(authorName));
+            }
+        }
         
         // Add author if available
         if (bookProps != null) {
-            String authorName = bookProps.getProperty("book.author", "");
             if (!authorName.isEmpty()) {
-                Author author = new Author(authorName);
-                metadata.addAuthor(author);
                 logger.info("Added author to EPUB metadata: " + authorName);
             } else {
                 logger.info("No author specified in book.author property");
@@ -56,6 +82,10 @@ public class EpubBuilderService {
      * @param failedFilenames Set of image filenames that failed to download (for placeholders)
      */
     public void addChapter(ChapterContent chapterContent, String chapterTitle, java.util.Set<String> failedFilenames) {
+        if (streamingWriter != null) {
+            addStreamingChapter(chapterContent, chapterTitle);
+            return;
+        }
         try {
             // Read chapter HTML file
             String chapterHtml = new String(Files.readAllBytes(chapterContent.getChapterHtmlFile()), java.nio.charset.StandardCharsets.UTF_8);
@@ -71,12 +101,8 @@ public class EpubBuilderService {
                 try {
                     if (!Files.exists(imageFile)) {
                         // File doesn't exist - replace img tag with placeholder
-                        String imgTag = "<img src=\"images/" + chapterNumber + "/" + imageName + "\"";
-                        String placeholder = "<p style=\"text-align:center;color:#666;padding:20px;\">[Image can not be read: " + imageName + "]</p>";
-                        chapterHtml = chapterHtml.replaceAll(
-                            java.util.regex.Pattern.quote(imgTag) + "[^>]*>",
-                            placeholder
-                        );
+                        chapterHtml = replaceImageWithPlaceholder(chapterHtml, chapterNumber, imageName,
+                            "[Image can not be read: " + imageName + "]");
                         continue;
                     }
                     
@@ -91,12 +117,8 @@ public class EpubBuilderService {
                 } catch (IOException e) {
                     // Image can't be read - replace img tag with placeholder
                     logger.warning("Failed to add image " + imageFile + ": " + e.getMessage());
-                    String imgTag = "<img src=\"images/" + chapterNumber + "/" + imageName + "\"";
-                    String placeholder = "<p style=\"text-align:center;color:#666;padding:20px;\">[Image can not be read: " + imageName + "]</p>";
-                    chapterHtml = chapterHtml.replaceAll(
-                        java.util.regex.Pattern.quote(imgTag) + "[^>]*>",
-                        placeholder
-                    );
+                    chapterHtml = replaceImageWithPlaceholder(chapterHtml, chapterNumber, imageName,
+                        "[Image can not be read: " + imageName + "]");
                 } catch (Exception e) {
                     // Unsupported image type or other error
                     String errorMsg = e.getMessage();
@@ -108,12 +130,7 @@ public class EpubBuilderService {
                         logger.severe("Failed to process image " + imageName + ": " + errorMsg);
                         placeholderText = "[Image can not be read: " + imageName + "]";
                     }
-                    String imgTag = "<img src=\"images/" + chapterNumber + "/" + imageName + "\"";
-                    String placeholder = "<p style=\"text-align:center;color:#666;padding:20px;\">" + placeholderText + "</p>";
-                    chapterHtml = chapterHtml.replaceAll(
-                        java.util.regex.Pattern.quote(imgTag) + "[^>]*>",
-                        placeholder
-                    );
+                    chapterHtml = replaceImageWithPlaceholder(chapterHtml, chapterNumber, imageName, placeholderText);
                 }
             }
             
@@ -135,6 +152,78 @@ public class EpubBuilderService {
         }
     }
 
+    /**
+     * Appends the chapters of this builder to an existing EPUB: its chapters and images are copied
+     * into the saved EPUB without being read again, and the table of contents lists both.
+     * Only the streaming writer can append.
+     * 
+     * @param existingEpub The EPUB written by an earlier run
+     * @return true if the chapters will be appended, false for the epublib writer or if the
+     *         layout of the existing EPUB differs (fixed or reflowable)
+     */
+    public boolean appendTo(ExistingEpub existingEpub) {
+        if (streamingWriter == null || existingEpub.isFixedLayout() != streamingWriter.isFixedLayout()) {
+            return false;
+        }
+        streamingWriter.setBase(existingEpub);
+        appendBase = existingEpub;
+        return true;
+    }
+    
+    /**
+     * Writes the book in EPUB 3 fixed layout: one pre-paginated page per image, sized from the
+     * image dimensions recorded at download time. Only the streaming writer supports it.
+     * Must be called before appendTo.
+     * 
+     * @param fixedLayout true for fixed layout, false for reflowable chapters
+     * @return true if the layout is applied, false for the epublib writer (always reflowable)
+     */
+    public boolean setFixedLayout(boolean fixedLayout) {
+        if (streamingWriter == null) {
+            return !fixedLayout;
+        }
+        streamingWriter.setFixedLayout(fixedLayout);
+        return true;
+    }
+    
+    /**
+     * Records a chapter for the streaming writer: the XHTML file and image paths, without reading them.
+     * Images that are missing or unreadable now are replaced by a placeholder when the EPUB is written.
+     */
+    private void addStreamingChapter(ChapterContent chapterContent, String chapterTitle) {
+        int chapterNumber = chapterContent.getInfo().getChapterNumber();
+        java.util.List<Path> imageFiles = new java.util.ArrayList<>();
+        java.util.Map<String, String> placeholders = new java.util.LinkedHashMap<>();
+        for (Path imageFile : chapterContent.getImageFiles()) {
+            String imageName = imageFile.getFileName().toString();
+            if (Files.isRegularFile(imageFile) && Files.isReadable(imageFile)) {
+                imageFiles.add(imageFile);
+            } else {
+                logger.warning("Failed to add image " + imageFile + ": file missing or unreadable");
+                placeholders.put(imageName, "[Image can not be read: " + imageName + "]");
+            }
+        }
+        streamingWriter.addChapter(chapterNumber, chapterTitle, chapterContent.getChapterHtmlFile(), imageFiles, placeholders);
+    }
+    
+    /**
+     * Replaces the img tag of a chapter image by a centered text placeholder.
+     * 
+     * @param chapterHtml The chapter XHTML
+     * @param chapterNumber The chapter number (images are referenced as images/N/filename)
+     * @param imageName The image filename
+     * @param placeholderText The text shown instead of the image
+     * @return The updated XHTML
+     */
+    static String replaceImageWithPlaceholder(String chapterHtml, int chapterNumber, String imageName, String placeholderText) {
+        String imgTag = "<img src=\"images/" + chapterNumber + "/" + imageName + "\"";
+        String placeholder = "<p style=\"text-align:center;color:#666;padding:20px;\">" + placeholderText + "</p>";
+        return chapterHtml.replaceAll(
+            java.util.regex.Pattern.quote(imgTag) + "[^>]*>",
+            java.util.regex.Matcher.quoteReplacement(placeholder)
+        );
+    }
+
     /**
      * Saves the EPUB to the output directory.
      * 
@@ -153,9 +242,36 @@ public class EpubBuilderService {
         Path epubFile = outputDir.resolve(epubFileName);
         
         // Write EPUB
-        EpubWriter epubWriter = new EpubWriter();
-        try (FileOutputStream out = new FileOutputStream(epubFile.toFile())) {
-            epubWriter.write(book, out);
+        if (streamingWriter != null) {
+            // Written next to the target first: the target may be the EPUB the chapters are appended to
+            long startTime = System.currentTimeMillis();
+            Path partFile = epubFile.resolveSibling(epubFile.getFileName() + ".part");
+            try {
+                streamingWriter.write(partFile);
+                try {
+                    Files.move(partFile, epubFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(partFile, epubFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(partFile);
+            }
+            if (appendBase != null) {
+                logger.info("EPUB appended to " + appendBase.getFile().getFileName() + ": " + 
+                    streamingWriter.getCopiedEntryCount() + " entries copied as-is");
+            }
+            logger.info("EPUB written from disk: " + streamingWriter.getChapterCount() + " chapters, " + 
+                streamingWriter.getImageCount() + " images (" + (streamingWriter.getImageBytes() / (1024 * 1024)) + 
+                " MB, " + streamingWriter.getStoredImageCount() + " stored uncompressed) in " + (System.currentTimeMillis() - startTime) + " ms");
+            if (streamingWriter.isFixedLayout()) {
+                logger.info("EPUB fixed layout: " + streamingWriter.getPageCount() + " pages, " + 
+                    streamingWriter.getMeasuredImageCount() + " image sizes not recorded at download (read from image headers)");
+            }
+        } else {
+            EpubWriter epubWriter = new EpubWriter();
+            try (FileOutputStream out = new FileOutputStream(epubFile.toFile())) {
+                epubWriter.write(book, out);
+            }
         }
         
         logger.info("EPUB saved to: " + epubFile.toAbsolutePath());
@@ -0,0 +1,261 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-28
+package org.web2book.epub;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An EPUB written by Web2Book (streaming or epublib writer), opened to append chapters to it.
+ * The package document and the NCX give the book identifier, the chapters with their titles and
+ * the other resources (images); the zip central directory gives the entries to copy as-is into the
+ * new EPUB. Chapters are expected as OEBPS/chapter-N.xhtml (followed by chapter-N-K.xhtml pages in
+ * fixed-layout books) and images as OEBPS/images/N/..., as both writers lay them out; other EPUBs are
+ * rejected.
+ */
+public class ExistingEpub {
+    private static final String OPF_PATH = "OEBPS/content.opf";
+    private static final Pattern CHAPTER_HREF = Pattern.compile("chapter-(\\d+)(?:-\\d+)?\\.xhtml");
+    private static final Pattern RESOURCE_CHAPTER = Pattern.compile("images/(\\d+)/.*");
+
+    /**
+     * A chapter of the existing EPUB.
+     */
+    public static class ExistingChapter {
+        private final int chapterNumber;
+        private final String title;
+        private final List<String> pageHrefs;
+
+        ExistingChapter(int chapterNumber, String title, List<String> pageHrefs) {
+            this.chapterNumber = chapterNumber;
+            this.title = title;
+            this.pageHrefs = pageHrefs;
+        }
+
+        public int getChapterNumber() {
+            return chapterNumber;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return The spine documents of the chapter, relative to OEBPS/ (one, or one per page in fixed layout)
+         */
+        List<String> getPageHrefs() {
+            return pageHrefs;
+        }
+    }
+
+    private final Path file;
+    private final String identifier;
+    private final boolean fixedLayout;
+    private final List<ExistingChapter> chapters;
+    private final List<String[]> resourceItems; // href, media type
+    private final List<ZipAssembler.Entry> entries;
+
+    private ExistingEpub(Path file, String identifier, boolean fixedLayout, List<ExistingChapter> chapters,
+            List<String[]> resourceItems, List<ZipAssembler.Entry> entries) {
+        this.file = file;
+        this.identifier = identifier;
+        this.fixedLayout = fixedLayout;
+        this.chapters = chapters;
+        this.resourceItems = resourceItems;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens an EPUB and reads its chapters.
+     *
+     * @param file The EPUB file
+     * @return The EPUB
+     * @throws IOException If the file cannot be read or was not written by Web2Book
+     */
+    public static ExistingEpub open(Path file) throws IOException {
+        List<ZipAssembler.Entry> entries = ZipAssembler.readEntries(file);
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Document container = parse(zip, "META-INF/container.xml");
+            NodeList rootfiles = container.getElementsByTagNameNS("*", "rootfile");
+            if (rootfiles.getLength() != 1 || !OPF_PATH.equals(((Element) rootfiles.item(0)).getAttribute("full-path"))) {
+                throw new IOException(file + " was not written by Web2Book (package document is not " + OPF_PATH + ")");
+            }
+
+            Document opf = parse(zip, OPF_PATH);
+            NodeList identifiers = opf.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", "identifier");
+            String identifier = identifiers.getLength() > 0 ? identifiers.item(0).getTextContent().trim() : null;
+            boolean fixedLayout = false;
+            NodeList metas = opf.getElementsByTagNameNS("*", "meta");
+            for (int i = 0; i < metas.getLength(); i++) {
+                Element meta = (Element) metas.item(i);
+                if ("rendition:layout".equals(meta.getAttribute("property"))) {
+                    fixedLayout = "pre-paginated".equals(meta.getTextContent().trim());
+                }
+            }
+
+            // Manifest: chapters are referenced from the spine, everything else except NCX and nav is a resource
+            Map<String, String> hrefById = new HashMap<>();
+            List<String[]> resourceItems = new ArrayList<>();
+            NodeList items = opf.getElementsByTagNameNS("*", "item");
+            for (int i = 0; i < items.getLength(); i++) {
+                Element item = (Element) items.item(i);
+                String href = item.getAttribute("href");
+                String mediaType = item.getAttribute("media-type");
+                hrefById.put(item.getAttribute("id"), href);
+                boolean chapter = CHAPTER_HREF.matcher(href).matches();
+                boolean navigation = mediaType.equals("application/x-dtbncx+xml") ||
+                    item.getAttribute("properties").contains("nav");
+                if (!chapter && !navigation) {
+                    resourceItems.add(new String[] { href, mediaType });
+                }
+            }
+
+            Map<String, String> titleByHref = readNcxTitles(zip, opf, hrefById);
+            // Spine: the documents of a chapter follow each other, the first one is in the table of contents
+            Map<Integer, List<String>> pageHrefsByChapter = new LinkedHashMap<>();
+            NodeList itemrefs = opf.getElementsByTagNameNS("*", "itemref");
+            for (int i = 0; i < itemrefs.getLength(); i++) {
+                String href = hrefById.get(((Element) itemrefs.item(i)).getAttribute("idref"));
+                Matcher matcher = href != null ? CHAPTER_HREF.matcher(href) : null;
+                if (matcher == null || !matcher.matches()) {
+                    throw new IOException(file + " was not written by Web2Book (spine item " + href + " is not a chapter)");
+                }
+                pageHrefsByChapter.computeIfAbsent(Integer.parseInt(matcher.group(1)), n -> new ArrayList<>()).add(href);
+            }
+            List<ExistingChapter> chapters = new ArrayList<>();
+            for (Map.Entry<Integer, List<String>> chapter : pageHrefsByChapter.entrySet()) {
+                int chapterNumber = chapter.getKey();
+                String title = titleByHref.getOrDefault(chapter.getValue().get(0), "Chapter " + chapterNumber);
+                chapters.add(new ExistingChapter(chapterNumber, title, chapter.getValue()));
+            }
+            return new ExistingEpub(file, identifier, fixedLayout, chapters, resourceItems, entries);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Cannot read the package files of " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The chapter titles of the NCX by chapter href, or an empty map if there is no NCX
+     */
+    private static Map<String, String> readNcxTitles(ZipFile zip, Document opf, Map<String, String> hrefById)
+            throws IOException, ParserConfigurationException, SAXException {
+        Map<String, String> titleByHref = new HashMap<>();
+        Element spine = (Element) opf.getElementsByTagNameNS("*", "spine").item(0);
+        String ncxHref = spine != null ? hrefById.get(spine.getAttribute("toc")) : null;
+        if (ncxHref == null || zip.getEntry("OEBPS/" + ncxHref) == null) {
+            return titleByHref;
+        }
+        Document ncx = parse(zip, "OEBPS/" + ncxHref);
+        NodeList navPoints = ncx.getElementsByTagNameNS("*", "navPoint");
+        for (int i = 0; i < navPoints.getLength(); i++) {
+            Element navPoint = (Element) navPoints.item(i);
+            Element content = (Element) navPoint.getElementsByTagNameNS("*", "content").item(0);
+            Element text = (Element) navPoint.getElementsByTagNameNS("*", "text").item(0);
+            if (content != null && text != null) {
+                String src = content.getAttribute("src");
+                int fragment = src.indexOf('#');
+                titleByHref.putIfAbsent(fragment >= 0 ? src.substring(0, fragment) : src, text.getTextContent().trim());
+            }
+        }
+        return titleByHref;
+    }
+
+    private static Document parse(ZipFile zip, String name) throws IOException, ParserConfigurationException, SAXException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing " + name);
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        // The NCX of epublib declares a DTD: do not fetch it
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        try (InputStream in = zip.getInputStream(entry)) {
+            return builder.parse(in);
+        }
+    }
+
+    /**
+     * Returns the chapter number of a resource under images/N/, or -1 for other resources.
+     *
+     * @param href The resource href, relative to OEBPS/
+     * @return The chapter number, or -1
+     */
+    static int chapterOfResource(String href) {
+        Matcher matcher = RESOURCE_CHAPTER.matcher(href);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Returns the chapter number of an entry of the zip, for chapters (OEBPS/chapter-N.xhtml)
+     * and their images (OEBPS/images/N/...), or -1 for other entries.
+     *
+     * @param entryName The entry name
+     * @return The chapter number, or -1
+     */
+    static int chapterOfEntry(String entryName) {
+        if (!entryName.startsWith("OEBPS/")) {
+            return -1;
+        }
+        String href = entryName.substring("OEBPS/".length());
+        Matcher matcher = CHAPTER_HREF.matcher(href);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : chapterOfResource(href);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The book identifier (dc:identifier), or null if there is none
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return true for a fixed-layout (pre-paginated) book, with one page per image
+     */
+    public boolean isFixedLayout() {
+        return fixedLayout;
+    }
+
+    /**
+     * @return The chapters in spine order
+     */
+    public List<ExistingChapter> getChapters() {
+        return chapters;
+    }
+
+    /**
+     * @return The manifest items other than chapters, NCX and nav (href relative to OEBPS/, media type)
+     */
+    List<String[]> getResourceItems() {
+        return resourceItems;
+    }
+
+    /**
+     * @return The zip entries, to copy without decompressing them
+     */
+    List<ZipAssembler.Entry> getEntries() {
+        return entries;
+    }
+}
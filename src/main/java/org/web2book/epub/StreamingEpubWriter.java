@@ -0,0 +1,597 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-28
+package org.web2book.epub;
+
+import org.web2book.util.ImageDimensions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes an EPUB without holding its content in memory.
+ * Chapters are recorded as file paths while they are added; at save time the package files
+ * (OPF, NCX, nav) are generated and each chapter XHTML and image is copied from disk straight
+ * into the zip stream, so memory use does not depend on the size of the book.
+ * The package is EPUB 3 with an NCX table of contents for EPUB 2 readers, files are laid out
+ * as in the epublib writer (OEBPS/chapter-N.xhtml, OEBPS/images/N/...).
+ * Text entries are deflated, on several threads; JPEG, PNG, GIF and WebP images are already
+ * compressed and are stored as-is, with their CRC computed beforehand.
+ * With a base EPUB (setBase), the entries of the base are copied without being decompressed,
+ * the new chapters are added after them and only the package files are generated again.
+ * In fixed layout (setFixedLayout), each image of a chapter becomes a pre-paginated page
+ * (chapter-N.xhtml, then chapter-N-2.xhtml, ...) whose viewport is the image size recorded in the
+ * dimensions.properties file of its directory, so readers do not lay out long image runs.
+ */
+public class StreamingEpubWriter {
+    private static final String CONTENT_DIR = "OEBPS/";
+
+    /**
+     * A chapter to write: its XHTML file, its images and the images replaced by placeholders.
+     */
+    private static class Chapter {
+        final int chapterNumber;
+        final String title;
+        final Path htmlFile;
+        final List<Path> imageFiles;
+        final Map<String, String> placeholders; // Image filename -> placeholder text
+        final List<String> pageHrefs = new ArrayList<>(); // Spine documents, the first one is in the table of contents
+        final List<Page> pages = new ArrayList<>(); // Pages to write in fixed layout
+
+        Chapter(int chapterNumber, String title, Path htmlFile, List<Path> imageFiles, Map<String, String> placeholders) {
+            this.chapterNumber = chapterNumber;
+            this.title = title;
+            this.htmlFile = htmlFile;
+            this.imageFiles = imageFiles;
+            this.placeholders = placeholders;
+            this.pageHrefs.add(href());
+        }
+
+        String href() {
+            return "chapter-" + chapterNumber + ".xhtml";
+        }
+    }
+
+    /**
+     * A fixed-layout page: one image, or the placeholder of an image that could not be added.
+     */
+    private static class Page {
+        final String href;
+        final String imageHref; // null for a placeholder
+        final String placeholder; // XHTML text of the placeholder
+        final ImageDimensions dimensions;
+
+        Page(String href, String imageHref, String placeholder, ImageDimensions dimensions) {
+            this.href = href;
+            this.imageHref = imageHref;
+            this.placeholder = placeholder;
+            this.dimensions = dimensions;
+        }
+    }
+
+    /** Images and placeholders of a chapter XHTML, in reading order */
+    private static final Pattern CHAPTER_ELEMENT = Pattern.compile(
+        "<img src=\"images/\\d+/([^\"]+)\"[^>]*>|<p[^>]*>(.*?)</p>", Pattern.DOTALL);
+    /** Document type declaration of a chapter XHTML (XHTML 1.1 for the EPUB 2 writer) */
+    private static final Pattern DOCTYPE = Pattern.compile("<!DOCTYPE[^>]*>", Pattern.CASE_INSENSITIVE);
+    /** Viewport of pages whose size is unknown, when no earlier page has one */
+    private static final ImageDimensions DEFAULT_PAGE_DIMENSIONS = new ImageDimensions(800, 1200);
+
+    private final String title;
+    private final String author;
+    private String identifier = "urn:uuid:" + UUID.randomUUID();
+    private final List<Chapter> chapters = new ArrayList<>();
+    private ExistingEpub base;
+    private boolean fixedLayout;
+    private long pageCount;
+    private long measuredImageCount;
+    private long copiedEntryCount;
+    private long imageCount;
+    private long imageBytes;
+    private long storedImageCount;
+    private final int threads;
+
+    /**
+     * @param title The book title
+     * @param author The author, or empty if unknown
+     * @param threads Number of entries compressed in parallel
+     */
+    public StreamingEpubWriter(String title, String author, int threads) {
+        this.title = title;
+        this.author = author != null ? author : "";
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Records a chapter. Only paths are kept; files are read when the EPUB is written.
+     *
+     * @param chapterNumber The chapter number (chapter-N.xhtml, images/N/)
+     * @param chapterTitle The title shown in the table of contents
+     * @param htmlFile The chapter XHTML file
+     * @param imageFiles The images to include, referenced by the XHTML as images/N/filename
+     * @param placeholders Images of the XHTML to replace by a text placeholder (filename to text)
+     */
+    public void addChapter(int chapterNumber, String chapterTitle, Path htmlFile, List<Path> imageFiles,
+            Map<String, String> placeholders) {
+        chapters.add(new Chapter(chapterNumber, chapterTitle, htmlFile, new ArrayList<>(imageFiles),
+            new LinkedHashMap<>(placeholders)));
+    }
+
+    /**
+     * Sets an existing EPUB the chapters are appended to. Its entries are copied as they are and its
+     * chapters keep their titles; a chapter added again replaces the one of the base.
+     *
+     * @param base The existing EPUB
+     */
+    public void setBase(ExistingEpub base) {
+        this.base = base;
+        if (base.getIdentifier() != null && !base.getIdentifier().isEmpty()) {
+            identifier = base.getIdentifier(); // Same book for readers that track reading progress
+        }
+    }
+
+    /**
+     * Sets whether the book is written in fixed layout, one pre-paginated page per image.
+     *
+     * @param fixedLayout true for fixed layout, false for reflowable chapters (default)
+     */
+    public void setFixedLayout(boolean fixedLayout) {
+        this.fixedLayout = fixedLayout;
+    }
+
+    /**
+     * Writes the EPUB. Entries are prepared on a fork-join pool (text deflated into a buffer, CRC of
+     * stored images computed) a few entries ahead of the writer, and written in order by ZipAssembler:
+     * mimetype first and uncompressed, then the package files and each chapter followed by its images.
+     *
+     * @param epubFile The file to write
+     * @throws IOException If a chapter file cannot be read or the EPUB cannot be written
+     */
+    public void write(Path epubFile) throws IOException {
+        imageCount = 0;
+        imageBytes = 0;
+        storedImageCount = 0;
+        copiedEntryCount = 0;
+        pageCount = 0;
+        measuredImageCount = 0;
+        if (fixedLayout) {
+            // Pages are needed by the package document, which is written first
+            Map<Path, Map<String, ImageDimensions>> dimensionsByDirectory = new HashMap<>();
+            ImageDimensions lastDimensions = DEFAULT_PAGE_DIMENSIONS;
+            for (Chapter chapter : chapters) {
+                lastDimensions = paginate(chapter, dimensionsByDirectory, lastDimensions);
+                pageCount += chapter.pages.size();
+            }
+        }
+
+        // Chapters of the table of contents: those of the base that are not added again, then the new ones
+        Set<Integer> newChapterNumbers = new HashSet<>();
+        for (Chapter chapter : chapters) {
+            newChapterNumbers.add(chapter.chapterNumber);
+        }
+        List<Chapter> bookChapters = new ArrayList<>();
+        List<String[]> imageItems = new ArrayList<>(); // Manifest of the resources: href, media type
+        Set<String> imageHrefs = new HashSet<>(); // Without duplicates (the zip cannot hold an entry twice)
+        if (base != null) {
+            for (ExistingEpub.ExistingChapter existing : base.getChapters()) {
+                if (!newChapterNumbers.contains(existing.getChapterNumber())) {
+                    Chapter chapter = new Chapter(existing.getChapterNumber(), existing.getTitle(), null,
+                        new ArrayList<>(), new LinkedHashMap<>());
+                    chapter.pageHrefs.clear();
+                    chapter.pageHrefs.addAll(existing.getPageHrefs());
+                    bookChapters.add(chapter);
+                }
+            }
+            for (String[] item : base.getResourceItems()) {
+                if (!newChapterNumbers.contains(ExistingEpub.chapterOfResource(item[0])) && imageHrefs.add(item[0])) {
+                    imageItems.add(item);
+                }
+            }
+        }
+        bookChapters.addAll(chapters);
+        bookChapters.sort(Comparator.comparingInt(chapter -> chapter.chapterNumber));
+
+        List<Callable<ZipAssembler.Entry>> tasks = new ArrayList<>();
+        tasks.add(() -> ZipAssembler.Entry.deflated("META-INF/container.xml", utf8(containerXml())));
+        tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + "content.opf", utf8(contentOpf(bookChapters, imageItems))));
+        tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + "toc.ncx", utf8(tocNcx(bookChapters))));
+        tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + "nav.xhtml", utf8(navXhtml(bookChapters))));
+        if (base != null) {
+            Set<String> generated = Set.of("mimetype", "META-INF/container.xml", CONTENT_DIR + "content.opf",
+                CONTENT_DIR + "toc.ncx", CONTENT_DIR + "nav.xhtml");
+            for (ZipAssembler.Entry entry : base.getEntries()) {
+                if (!generated.contains(entry.getName()) &&
+                        !newChapterNumbers.contains(ExistingEpub.chapterOfEntry(entry.getName()))) {
+                    tasks.add(() -> entry);
+                }
+            }
+        }
+        for (Chapter chapter : chapters) {
+            if (fixedLayout) {
+                for (Page page : chapter.pages) {
+                    tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + page.href, utf8(pageXhtml(chapter, page))));
+                }
+            } else {
+                tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + chapter.href(), utf8(chapterXhtml(chapter))));
+            }
+            for (Path imageFile : chapter.imageFiles) {
+                String href = imageHref(chapter, imageFile);
+                if (!imageHrefs.add(href)) {
+                    continue;
+                }
+                imageItems.add(new String[] { href, mediaTypeOf(href) });
+                if (isCompressedImage(href)) {
+                    tasks.add(() -> ZipAssembler.Entry.storedFile(CONTENT_DIR + href, imageFile));
+                } else {
+                    tasks.add(() -> ZipAssembler.Entry.deflated(CONTENT_DIR + href, Files.readAllBytes(imageFile)));
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (ZipAssembler zip = new ZipAssembler(epubFile)) {
+            // The mimetype must come first and uncompressed, so readers can identify the file
+            zip.add(ZipAssembler.Entry.stored("mimetype", "application/epub+zip".getBytes(StandardCharsets.US_ASCII)));
+
+            // Entries are prepared at most a window ahead, so buffers of deflated entries stay few
+            int window = threads * 4;
+            Deque<Future<ZipAssembler.Entry>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < tasks.size() || !pending.isEmpty()) {
+                while (next < tasks.size() && pending.size() < window) {
+                    pending.add(pool.submit(tasks.get(next++)));
+                }
+                ZipAssembler.Entry entry = pending.poll().get();
+                zip.add(entry);
+                if (entry.isCopied()) {
+                    copiedEntryCount++;
+                } else if (entry.getName().startsWith(CONTENT_DIR + "images/")) {
+                    imageCount++;
+                    imageBytes += entry.getSize();
+                    if (entry.isStored()) {
+                        storedImageCount++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + epubFile, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The chapter XHTML as an EPUB 3 content document (HTML5 doctype instead of the XHTML 1.1
+     *         one), with the placeholders of its unreadable images
+     */
+    private static String chapterXhtml(Chapter chapter) throws IOException {
+        String html = new String(Files.readAllBytes(chapter.htmlFile), StandardCharsets.UTF_8);
+        html = DOCTYPE.matcher(html).replaceFirst("<!DOCTYPE html>");
+        for (Map.Entry<String, String> placeholder : chapter.placeholders.entrySet()) {
+            html = EpubBuilderService.replaceImageWithPlaceholder(html, chapter.chapterNumber,
+                placeholder.getKey(), placeholder.getValue());
+        }
+        return html;
+    }
+
+    /**
+     * Splits a chapter into fixed-layout pages, following the images and placeholders of its XHTML.
+     * Page sizes come from the recorded image dimensions; images without one are measured from their
+     * header, and placeholders take the size of the page before them.
+     *
+     * @return The size of the last page, for the placeholders of the next chapter
+     */
+    private ImageDimensions paginate(Chapter chapter, Map<Path, Map<String, ImageDimensions>> dimensionsByDirectory,
+            ImageDimensions lastDimensions) throws IOException {
+        Map<String, Path> imageFilesByName = new HashMap<>();
+        for (Path imageFile : chapter.imageFiles) {
+            imageFilesByName.put(imageFile.getFileName().toString(), imageFile);
+        }
+        chapter.pages.clear();
+        chapter.pageHrefs.clear();
+        ImageDimensions dimensions = lastDimensions;
+        Matcher matcher = CHAPTER_ELEMENT.matcher(chapterXhtml(chapter));
+        while (matcher.find()) {
+            String pageHref = chapter.pages.isEmpty() ? chapter.href() :
+                "chapter-" + chapter.chapterNumber + "-" + (chapter.pages.size() + 1) + ".xhtml";
+            Path imageFile = matcher.group(1) != null ? imageFilesByName.get(matcher.group(1)) : null;
+            if (imageFile != null) {
+                dimensions = dimensionsOf(imageFile, dimensionsByDirectory, dimensions);
+                chapter.pages.add(new Page(pageHref, imageHref(chapter, imageFile), null, dimensions));
+            } else {
+                String placeholder = matcher.group(1) != null ?
+                    "[Image can not be read: " + escapeXml(matcher.group(1)) + "]" : matcher.group(2);
+                chapter.pages.add(new Page(pageHref, null, placeholder, dimensions));
+            }
+            chapter.pageHrefs.add(pageHref);
+        }
+        if (chapter.pages.isEmpty()) {
+            // Nothing to show: keep a page so the chapter stays in the table of contents
+            chapter.pages.add(new Page(chapter.href(), null, escapeXml(chapter.title), dimensions));
+            chapter.pageHrefs.add(chapter.href());
+        }
+        return dimensions;
+    }
+
+    /**
+     * @return The recorded dimensions of an image, else those of its header, else the fallback
+     */
+    private ImageDimensions dimensionsOf(Path imageFile, Map<Path, Map<String, ImageDimensions>> dimensionsByDirectory,
+            ImageDimensions fallback) throws IOException {
+        Path directory = imageFile.toAbsolutePath().getParent();
+        Map<String, ImageDimensions> recorded = dimensionsByDirectory.get(directory);
+        if (recorded == null) {
+            recorded = ImageDimensions.load(directory);
+            dimensionsByDirectory.put(directory, recorded);
+        }
+        ImageDimensions dimensions = recorded.get(imageFile.getFileName().toString());
+        if (dimensions == null) {
+            measuredImageCount++;
+            dimensions = ImageDimensions.readHeader(imageFile);
+        }
+        return dimensions != null ? dimensions : fallback;
+    }
+
+    /**
+     * @return The XHTML of a fixed-layout page: the image (or placeholder) filling a viewport of its size
+     */
+    private static String pageXhtml(Chapter chapter, Page page) {
+        int width = page.dimensions.getWidth();
+        int height = page.dimensions.getHeight();
+        StringBuilder html = new StringBuilder();
+        html.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        html.append("<!DOCTYPE html>\n");
+        html.append("<html xmlns=\"http://www.w3.org/1999/xhtml\">\n");
+        html.append("<head>\n");
+        html.append("<title>").append(escapeXml(chapter.title)).append("</title>\n");
+        html.append("<meta name=\"viewport\" content=\"width=").append(width).append(", height=").append(height).append("\"/>\n");
+        html.append("<style>html, body { margin: 0; padding: 0; width: ").append(width).append("px; height: ")
+            .append(height).append("px; overflow: hidden; }</style>\n");
+        html.append("</head>\n");
+        html.append("<body>\n");
+        if (page.imageHref != null) {
+            html.append("<img src=\"").append(escapeXml(page.imageHref)).append("\" alt=\"\" width=\"").append(width)
+                .append("\" height=\"").append(height).append("\" style=\"display:block;width:").append(width)
+                .append("px;height:").append(height).append("px;\"/>\n");
+        } else {
+            html.append("<div style=\"display:table;width:").append(width).append("px;height:").append(height).append("px;\">")
+                .append("<p style=\"display:table-cell;vertical-align:middle;text-align:center;color:#666;\">")
+                .append(page.placeholder).append("</p></div>\n");
+        }
+        html.append("</body>\n");
+        html.append("</html>\n");
+        return html.toString();
+    }
+
+    /**
+     * @return Number of fixed-layout pages of the new chapters of the last write
+     */
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return Number of images of the last write without recorded dimensions, measured from their header
+     */
+    public long getMeasuredImageCount() {
+        return measuredImageCount;
+    }
+
+    /**
+     * @return true if the book is written in fixed layout
+     */
+    public boolean isFixedLayout() {
+        return fixedLayout;
+    }
+
+    /**
+     * @return Number of images copied by the last write
+     */
+    public long getImageCount() {
+        return imageCount;
+    }
+
+    /**
+     * @return Total size of the images copied by the last write, in bytes
+     */
+    public long getImageBytes() {
+        return imageBytes;
+    }
+
+    /**
+     * @return Number of images of the last write stored without compression
+     */
+    public long getStoredImageCount() {
+        return storedImageCount;
+    }
+
+    /**
+     * @return Number of entries of the last write copied from the base EPUB
+     */
+    public long getCopiedEntryCount() {
+        return copiedEntryCount;
+    }
+
+    /**
+     * @return Number of chapters recorded
+     */
+    public int getChapterCount() {
+        return chapters.size();
+    }
+
+    private static String imageHref(Chapter chapter, Path imageFile) {
+        return "images/" + chapter.chapterNumber + "/" + imageFile.getFileName().toString();
+    }
+
+    /**
+     * @return true for image formats whose data deflate cannot make smaller
+     */
+    static boolean isCompressedImage(String href) {
+        String mediaType = mediaTypeOf(href);
+        return mediaType.equals("image/jpeg") || mediaType.equals("image/png") ||
+            mediaType.equals("image/gif") || mediaType.equals("image/webp");
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String containerXml() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n" +
+            "  <rootfiles>\n" +
+            "    <rootfile full-path=\"" + CONTENT_DIR + "content.opf\" media-type=\"application/oebps-package+xml\"/>\n" +
+            "  </rootfiles>\n" +
+            "</container>\n";
+    }
+
+    private String contentOpf(List<Chapter> bookChapters, List<String[]> imageItems) {
+        StringBuilder opf = new StringBuilder();
+        opf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        opf.append("<package xmlns=\"http://www.idpf.org/2007/opf\" version=\"3.0\" unique-identifier=\"BookId\">\n");
+        opf.append("  <metadata xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+        opf.append("    <dc:identifier id=\"BookId\">").append(escapeXml(identifier)).append("</dc:identifier>\n");
+        opf.append("    <dc:title>").append(escapeXml(title)).append("</dc:title>\n");
+        if (!author.isEmpty()) {
+            opf.append("    <dc:creator>").append(escapeXml(author)).append("</dc:creator>\n");
+        }
+        opf.append("    <dc:language>en</dc:language>\n");
+        opf.append("    <meta property=\"dcterms:modified\">")
+            .append(Instant.now().truncatedTo(ChronoUnit.SECONDS)).append("</meta>\n");
+        if (fixedLayout) {
+            opf.append("    <meta property=\"rendition:layout\">pre-paginated</meta>\n");
+            opf.append("    <meta property=\"rendition:orientation\">auto</meta>\n");
+            opf.append("    <meta property=\"rendition:spread\">none</meta>\n");
+        }
+        opf.append("  </metadata>\n");
+        opf.append("  <manifest>\n");
+        opf.append("    <item id=\"ncx\" href=\"toc.ncx\" media-type=\"application/x-dtbncx+xml\"/>\n");
+        opf.append("    <item id=\"nav\" href=\"nav.xhtml\" media-type=\"application/xhtml+xml\" properties=\"nav\"/>\n");
+        for (Chapter chapter : bookChapters) {
+            for (String pageHref : chapter.pageHrefs) {
+                opf.append("    <item id=\"").append(pageId(pageHref)).append("\" href=\"").append(pageHref)
+                    .append("\" media-type=\"application/xhtml+xml\"/>\n");
+            }
+        }
+        for (int i = 0; i < imageItems.size(); i++) {
+            opf.append("    <item id=\"image-").append(i + 1).append("\" href=\"").append(escapeXml(imageItems.get(i)[0]))
+                .append("\" media-type=\"").append(imageItems.get(i)[1]).append("\"/>\n");
+        }
+        opf.append("  </manifest>\n");
+        opf.append("  <spine toc=\"ncx\">\n");
+        for (Chapter chapter : bookChapters) {
+            for (String pageHref : chapter.pageHrefs) {
+                opf.append("    <itemref idref=\"").append(pageId(pageHref)).append("\"/>\n");
+            }
+        }
+        opf.append("  </spine>\n");
+        opf.append("</package>\n");
+        return opf.toString();
+    }
+
+    /**
+     * @return The manifest id of a chapter document (chapter-N, chapter-N-K)
+     */
+    private static String pageId(String pageHref) {
+        return pageHref.substring(0, pageHref.length() - ".xhtml".length());
+    }
+
+    private String tocNcx(List<Chapter> bookChapters) {
+        StringBuilder ncx = new StringBuilder();
+        ncx.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        ncx.append("<ncx xmlns=\"http://www.daisy.org/z3986/2005/ncx/\" version=\"2005-1\">\n");
+        ncx.append("  <head>\n");
+        ncx.append("    <meta name=\"dtb:uid\" content=\"").append(escapeXml(identifier)).append("\"/>\n");
+        ncx.append("    <meta name=\"dtb:depth\" content=\"1\"/>\n");
+        ncx.append("    <meta name=\"dtb:totalPageCount\" content=\"0\"/>\n");
+        ncx.append("    <meta name=\"dtb:maxPageNumber\" content=\"0\"/>\n");
+        ncx.append("  </head>\n");
+        ncx.append("  <docTitle><text>").append(escapeXml(title)).append("</text></docTitle>\n");
+        ncx.append("  <navMap>\n");
+        int playOrder = 1;
+        for (Chapter chapter : bookChapters) {
+            ncx.append("    <navPoint id=\"navPoint-").append(playOrder).append("\" playOrder=\"").append(playOrder).append("\">\n");
+            ncx.append("      <navLabel><text>").append(escapeXml(chapter.title)).append("</text></navLabel>\n");
+            ncx.append("      <content src=\"").append(chapter.href()).append("\"/>\n");
+            ncx.append("    </navPoint>\n");
+            playOrder++;
+        }
+        ncx.append("  </navMap>\n");
+        ncx.append("</ncx>\n");
+        return ncx.toString();
+    }
+
+    private String navXhtml(List<Chapter> bookChapters) {
+        StringBuilder nav = new StringBuilder();
+        nav.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        nav.append("<!DOCTYPE html>\n");
+        nav.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:epub=\"http://www.idpf.org/2007/ops\">\n");
+        nav.append("<head><title>").append(escapeXml(title)).append("</title></head>\n");
+        nav.append("<body>\n");
+        nav.append("<nav epub:type=\"toc\" id=\"toc\">\n");
+        nav.append("<h1>Table of Contents</h1>\n");
+        nav.append("<ol>\n");
+        for (Chapter chapter : bookChapters) {
+            nav.append("<li><a href=\"").append(chapter.href()).append("\">").append(escapeXml(chapter.title)).append("</a></li>\n");
+        }
+        nav.append("</ol>\n");
+        nav.append("</nav>\n");
+        nav.append("</body>\n");
+        nav.append("</html>\n");
+        return nav.toString();
+    }
+
+    /**
+     * @return The media type of an image, from its file extension
+     */
+    static String mediaTypeOf(String href) {
+        String name = href.toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        if (name.endsWith(".png")) {
+            return "image/png";
+        }
+        if (name.endsWith(".gif")) {
+            return "image/gif";
+        }
+        if (name.endsWith(".webp")) {
+            return "image/webp";
+        }
+        if (name.endsWith(".svg")) {
+            return "image/svg+xml";
+        }
+        if (name.endsWith(".bmp")) {
+            return "image/bmp";
+        }
+        return "application/octet-stream";
+    }
+
+    static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
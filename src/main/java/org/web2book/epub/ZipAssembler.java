@@ -0,0 +1,468 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-28
+package org.web2book.epub;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file from entries that are compressed beforehand, in the order they are added.
+ * java.util.zip.ZipOutputStream compresses each entry itself while writing it, so entries cannot be
+ * compressed on several threads; here each Entry carries its final data (deflated bytes, or the
+ * file of a stored entry) with its CRC and sizes, and the assembler only writes the headers and
+ * copies the data. Entries are written without data descriptors, so streaming readers see the sizes
+ * in the local headers. Zip64 records are added when the archive grows beyond 4 GB or 65535 entries.
+ * The entries of an existing zip can be read with readEntries and written again without being
+ * decompressed: their data is copied byte for byte.
+ */
+public class ZipAssembler implements Closeable {
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * An entry ready to be written: name, compression method, CRC, sizes and data.
+     */
+    public static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final byte[] data;  // Data as written in the zip, or null to copy sourceFile
+        final Path sourceFile;
+        final long sourceOffset; // Start of the data in sourceFile (a file, or the data of an entry of another zip)
+
+        private Entry(String name, int method, long crc, long size, long compressedSize, byte[] data, Path sourceFile,
+                long sourceOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+            this.sourceFile = sourceFile;
+            this.sourceOffset = sourceOffset;
+        }
+
+        /**
+         * Creates a deflated entry, compressing the content now.
+         *
+         * @param name The entry name
+         * @param content The uncompressed content
+         * @return The entry
+         */
+        public static Entry deflated(String name, byte[] content) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+                byte[] buffer = new byte[16 * 1024];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    out.write(buffer, 0, length);
+                }
+                byte[] compressed = out.toByteArray();
+                return new Entry(name, METHOD_DEFLATED, crc.getValue(), content.length, compressed.length, compressed, null, 0);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * Creates an uncompressed entry from bytes.
+         *
+         * @param name The entry name
+         * @param content The content
+         * @return The entry
+         */
+        public static Entry stored(String name, byte[] content) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            return new Entry(name, METHOD_STORED, crc.getValue(), content.length, content.length, content, null, 0);
+        }
+
+        /**
+         * Creates an uncompressed entry copied from a file when it is written.
+         * The CRC is computed now (much faster than deflating the file).
+         *
+         * @param name The entry name
+         * @param file The file
+         * @return The entry
+         * @throws IOException If the file cannot be read
+         */
+        public static Entry storedFile(String name, Path file) throws IOException {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            return new Entry(name, METHOD_STORED, crc.getValue(), size, size, null, file, 0);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isStored() {
+            return method == METHOD_STORED;
+        }
+
+        /**
+         * @return true for an entry read from another zip, whose data is copied as-is
+         */
+        public boolean isCopied() {
+            return data == null && sourceOffset > 0;
+        }
+    }
+
+    /**
+     * Central directory record of a written entry.
+     */
+    private static class WrittenEntry {
+        final Entry entry;
+        final byte[] nameBytes;
+        final long offset;
+
+        WrittenEntry(Entry entry, byte[] nameBytes, long offset) {
+            this.entry = entry;
+            this.nameBytes = nameBytes;
+            this.offset = offset;
+        }
+    }
+
+    private final OutputStream out;
+    private final List<WrittenEntry> entries = new ArrayList<>();
+    private final int dosTime;
+    private final int dosDate;
+    private long position;
+
+    /**
+     * @param zipFile The zip file to create (replaced if it exists)
+     * @throws IOException If the file cannot be created
+     */
+    public ZipAssembler(Path zipFile) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(zipFile), 64 * 1024);
+        LocalDateTime now = LocalDateTime.now();
+        this.dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        this.dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    /**
+     * Writes an entry after the previous ones.
+     *
+     * @param entry The entry
+     * @throws IOException If the entry cannot be written (or its source file changed size)
+     */
+    public void add(Entry entry) throws IOException {
+        byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64Sizes = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+        entries.add(new WrittenEntry(entry, nameBytes, position));
+
+        ByteBuffer header = littleEndian(30 + nameBytes.length + (zip64Sizes ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) versionNeeded(entry, zip64Sizes));
+        header.putShort((short) flags(entry.name));
+        header.putShort((short) entry.method);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64Sizes ? ZIP64_LIMIT : entry.compressedSize));
+        header.putInt((int) (zip64Sizes ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) nameBytes.length);
+        header.putShort((short) (zip64Sizes ? 20 : 0));
+        header.put(nameBytes);
+        if (zip64Sizes) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        write(header.array());
+
+        if (entry.data != null) {
+            write(entry.data);
+        } else {
+            long copied = 0;
+            try (FileChannel channel = FileChannel.open(entry.sourceFile, StandardOpenOption.READ)) {
+                channel.position(entry.sourceOffset);
+                InputStream in = Channels.newInputStream(channel);
+                byte[] buffer = new byte[64 * 1024];
+                while (copied < entry.compressedSize) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, entry.compressedSize - copied));
+                    if (read < 0) {
+                        break;
+                    }
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+                position += copied;
+                // A whole file (offset 0) must still have the size its CRC was computed for
+                long available = entry.sourceOffset == 0 ? channel.size() : copied;
+                if (copied != entry.compressedSize || available != entry.compressedSize) {
+                    throw new IOException(entry.sourceFile + " changed while the zip was written (" + available +
+                        " bytes instead of " + entry.compressedSize + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of an existing zip from its central directory. The returned entries
+     * reference the compressed data in the zip, to be written again with add() without
+     * decompressing it.
+     *
+     * @param zipFile The zip file
+     * @return The entries, in central directory order
+     * @throws IOException If the file cannot be read or is not a zip
+     */
+    public static List<Entry> readEntries(Path zipFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int tailSize = (int) Math.min(fileSize, 22 + 0xFFFF); // End record and the longest comment
+            ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+            int end = -1;
+            for (int i = tailSize - 22; i >= 0; i--) {
+                if (tail.getInt(i) == 0x06054b50) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new IOException(zipFile + " is not a zip file (no end of central directory)");
+            }
+            long entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long centralDirectorySize = tail.getInt(end + 12) & ZIP64_LIMIT;
+            long centralDirectoryOffset = tail.getInt(end + 16) & ZIP64_LIMIT;
+            long endPosition = fileSize - tailSize + end;
+            if ((entryCount == ZIP64_ENTRY_LIMIT || centralDirectorySize == ZIP64_LIMIT ||
+                    centralDirectoryOffset == ZIP64_LIMIT) && endPosition >= 20) {
+                ByteBuffer locator = read(channel, endPosition - 20, 20);
+                if (locator.getInt(0) == 0x07064b50) {
+                    ByteBuffer end64 = read(channel, locator.getLong(8), 56);
+                    if (end64.getInt(0) != 0x06064b50) {
+                        throw new IOException(zipFile + " has an invalid zip64 end of central directory");
+                    }
+                    entryCount = end64.getLong(32);
+                    centralDirectorySize = end64.getLong(40);
+                    centralDirectoryOffset = end64.getLong(48);
+                }
+            }
+            if (centralDirectorySize > Integer.MAX_VALUE) {
+                throw new IOException(zipFile + " has a central directory too large to read");
+            }
+
+            ByteBuffer directory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+            List<Entry> result = new ArrayList<>();
+            int p = 0;
+            for (long i = 0; i < entryCount; i++) {
+                if (directory.getInt(p) != 0x02014b50) {
+                    throw new IOException(zipFile + " has an invalid central directory entry");
+                }
+                int flags = directory.getShort(p + 8) & 0xFFFF;
+                int method = directory.getShort(p + 10) & 0xFFFF;
+                long crc = directory.getInt(p + 16) & ZIP64_LIMIT;
+                long compressedSize = directory.getInt(p + 20) & ZIP64_LIMIT;
+                long size = directory.getInt(p + 24) & ZIP64_LIMIT;
+                int nameLength = directory.getShort(p + 28) & 0xFFFF;
+                int extraLength = directory.getShort(p + 30) & 0xFFFF;
+                int commentLength = directory.getShort(p + 32) & 0xFFFF;
+                long offset = directory.getInt(p + 42) & ZIP64_LIMIT;
+                byte[] nameBytes = new byte[nameLength];
+                directory.get(p + 46, nameBytes);
+                String name = new String(nameBytes, (flags & 0x0800) != 0 ? StandardCharsets.UTF_8 : Charset.forName("IBM437"));
+
+                // Zip64 extra field: the values that did not fit, in this order
+                int extra = p + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xFFFF;
+                    int length = directory.getShort(extra + 2) & 0xFFFF;
+                    if (id == 0x0001) {
+                        int value = extra + 4;
+                        if (size == ZIP64_LIMIT) {
+                            size = directory.getLong(value);
+                            value += 8;
+                        }
+                        if (compressedSize == ZIP64_LIMIT) {
+                            compressedSize = directory.getLong(value);
+                            value += 8;
+                        }
+                        if (offset == ZIP64_LIMIT) {
+                            offset = directory.getLong(value);
+                        }
+                    }
+                    extra += 4 + length;
+                }
+
+                // The data starts after the local header, whose extra field can differ from the central one
+                ByteBuffer local = read(channel, offset, 30);
+                if (local.getInt(0) != 0x04034b50) {
+                    throw new IOException(zipFile + " has an invalid local header for " + name);
+                }
+                long dataOffset = offset + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+                result.add(new Entry(name, method, crc, size, compressedSize, null, zipFile, dataOffset));
+                p += 46 + nameLength + extraLength + commentLength;
+            }
+            return result;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = littleEndian(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the central directory and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralDirectoryOffset = position;
+            for (WrittenEntry written : entries) {
+                Entry entry = written.entry;
+                boolean sizeOverflow = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+                boolean offsetOverflow = written.offset >= ZIP64_LIMIT;
+                int extraLength = (sizeOverflow ? 16 : 0) + (offsetOverflow ? 8 : 0);
+                if (extraLength > 0) {
+                    extraLength += 4;
+                }
+
+                ByteBuffer header = littleEndian(46 + written.nameBytes.length + extraLength);
+                header.putInt(0x02014b50);
+                header.putShort((short) versionNeeded(entry, extraLength > 0));
+                header.putShort((short) versionNeeded(entry, extraLength > 0));
+                header.putShort((short) flags(entry.name));
+                header.putShort((short) entry.method);
+                header.putShort((short) dosTime);
+                header.putShort((short) dosDate);
+                header.putInt((int) entry.crc);
+                header.putInt((int) (sizeOverflow ? ZIP64_LIMIT : entry.compressedSize));
+                header.putInt((int) (sizeOverflow ? ZIP64_LIMIT : entry.size));
+                header.putShort((short) written.nameBytes.length);
+                header.putShort((short) extraLength);
+                header.putShort((short) 0); // Comment length
+                header.putShort((short) 0); // Disk number
+                header.putShort((short) 0); // Internal attributes
+                header.putInt(0); // External attributes
+                header.putInt((int) (offsetOverflow ? ZIP64_LIMIT : written.offset));
+                header.put(written.nameBytes);
+                if (extraLength > 0) {
+                    header.putShort((short) 0x0001);
+                    header.putShort((short) (extraLength - 4));
+                    if (sizeOverflow) {
+                        header.putLong(entry.size);
+                        header.putLong(entry.compressedSize);
+                    }
+                    if (offsetOverflow) {
+                        header.putLong(written.offset);
+                    }
+                }
+                write(header.array());
+            }
+            long centralDirectorySize = position - centralDirectoryOffset;
+
+            boolean zip64 = entries.size() >= ZIP64_ENTRY_LIMIT || centralDirectoryOffset >= ZIP64_LIMIT ||
+                centralDirectorySize >= ZIP64_LIMIT;
+            if (zip64) {
+                long zip64EndOffset = position;
+                ByteBuffer end64 = littleEndian(56 + 20);
+                end64.putInt(0x06064b50);
+                end64.putLong(44); // Size of the rest of the record
+                end64.putShort((short) 45);
+                end64.putShort((short) 45);
+                end64.putInt(0); // This disk
+                end64.putInt(0); // Disk of the central directory
+                end64.putLong(entries.size());
+                end64.putLong(entries.size());
+                end64.putLong(centralDirectorySize);
+                end64.putLong(centralDirectoryOffset);
+                // Zip64 end of central directory locator
+                end64.putInt(0x07064b50);
+                end64.putInt(0);
+                end64.putLong(zip64EndOffset);
+                end64.putInt(1);
+                write(end64.array());
+            }
+
+            ByteBuffer end = littleEndian(22);
+            end.putInt(0x06054b50);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT));
+            end.putShort((short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT));
+            end.putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT));
+            end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_LIMIT));
+            end.putShort((short) 0); // Comment length
+            write(end.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private static int versionNeeded(Entry entry, boolean zip64) {
+        if (zip64) {
+            return 45;
+        }
+        return entry.method == METHOD_DEFLATED ? 20 : 10;
+    }
+
+    /**
+     * @return General purpose flags: bit 11 (UTF-8 name) for names that are not plain ASCII
+     */
+    private static int flags(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7F) {
+                return 0x0800;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,137 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-25
+package org.web2book.net;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Long-lived download engine shared by all book jobs of the process.
+ * Each task runs on its own virtual thread, so blocking HTTP calls are cheap,
+ * and the number of in-flight requests per host is bounded by a semaphore.
+ */
+public class DownloadEngine implements AutoCloseable {
+    private static final int DEFAULT_MAX_CONCURRENT_PER_HOST = 4;
+
+    private final ExecutorService executor;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final int maxConcurrentPerHost;
+    private final Logger logger;
+
+    /**
+     * Creates the engine. The per-host limit is read from max.concurrent.downloads.per.host,
+     * falling back to max.concurrent.image.downloads (default: 4).
+     *
+     * @param globalProps Global properties (may be null for defaults)
+     * @param logger Logger for engine diagnostics
+     */
+    public DownloadEngine(Properties globalProps, Logger logger) {
+        this.logger = logger;
+        this.maxConcurrentPerHost = readMaxConcurrentPerHost(globalProps);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Submits a download task. The task runs on a virtual thread once a permit
+     * for the host of the URL is available.
+     *
+     * @param url The URL the task will request (used to pick the host limit)
+     * @param task The task to run
+     * @return Future of the task result
+     */
+    public <T> Future<T> submit(String url, Callable<T> task) {
+        return submit(url, null, task);
+    }
+
+    /**
+     * Submits a download task limited by a permit of its job as well as by the host limit.
+     * The job permit is taken first: a task waiting for its job never holds a host permit,
+     * so a job with a long queue cannot keep the host slots from the other jobs.
+     *
+     * @param url The URL the task will request (used to pick the host limit)
+     * @param jobPermits Permits of the submitting job (null for none)
+     * @param task The task to run
+     * @return Future of the task result
+     */
+    public <T> Future<T> submit(String url, Semaphore jobPermits, Callable<T> task) {
+        Semaphore permits = hostPermits.computeIfAbsent(hostOf(url), host -> new Semaphore(maxConcurrentPerHost, true));
+        return executor.submit(() -> {
+            if (jobPermits != null) {
+                jobPermits.acquire();
+            }
+            try {
+                permits.acquire();
+                try {
+                    return task.call();
+                } finally {
+                    permits.release();
+                }
+            } finally {
+                if (jobPermits != null) {
+                    jobPermits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Maximum number of concurrent requests per host
+     */
+    public int getMaxConcurrentPerHost() {
+        return maxConcurrentPerHost;
+    }
+
+    /**
+     * Stops accepting tasks and waits for in-flight downloads to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warning("DownloadEngine: downloads did not finish within 60s, forcing shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int readMaxConcurrentPerHost(Properties globalProps) {
+        if (globalProps == null) {
+            return DEFAULT_MAX_CONCURRENT_PER_HOST;
+        }
+        String value = globalProps.getProperty("max.concurrent.downloads.per.host");
+        if (value == null || value.trim().isEmpty()) {
+            value = globalProps.getProperty("max.concurrent.image.downloads");
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_MAX_CONCURRENT_PER_HOST;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : DEFAULT_MAX_CONCURRENT_PER_HOST;
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_CONCURRENT_PER_HOST;
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-24
+package org.web2book.net;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host token-bucket rate limiter shared by all requests of the application.
+ * HTML pages and images have separate budgets, each defined by a sustained rate
+ * (requests per second) and a burst size. A kind without a configured rate is not limited.
+ */
+public class HostRateLimiter {
+
+    /**
+     * Kind of request, each kind has its own bucket per host.
+     */
+    public enum RequestKind {
+        HTML("html"),
+        IMAGE("image");
+
+        private final String key;
+
+        RequestKind(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Token bucket for one host and one request kind.
+     * Tokens may go negative: a request reserves its token immediately and waits
+     * for the debt to be refilled, so concurrent callers are served in arrival order.
+     */
+    private static class TokenBucket {
+        private final double ratePerSecond;
+        private final double burst;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(double ratePerSecond, double burst) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * ratePerSecond);
+            lastRefillNanos = now;
+            tokens -= 1;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens / ratePerSecond * 1_000_000_000.0);
+        }
+    }
+
+    // Marker bucket for hosts/kinds without a configured rate
+    private static final TokenBucket NO_LIMIT = new TokenBucket(1, 1);
+
+    private final Properties props;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a rate limiter from the global properties:
+     * rate.limit.html.per.second, rate.limit.html.burst, rate.limit.image.per.second, rate.limit.image.burst,
+     * and per-host overrides such as rate.limit.host.example.org.image.per.second.
+     *
+     * @param props Global properties (may be null for no limits)
+     */
+    public HostRateLimiter(Properties props) {
+        this.props = props != null ? props : new Properties();
+    }
+
+    /**
+     * Checks if requests of the given kind to the host of the URL are rate limited,
+     * by a rate above 0 for that host or by the default rate.
+     *
+     * @param url A URL of the host
+     * @param kind The request kind
+     * @return true if requests of this kind to this host are paced
+     */
+    public boolean isEnabled(String url, RequestKind kind) {
+        return readRate(hostOf(url), kind) > 0;
+    }
+
+    /**
+     * Reserves a request slot for the host of the URL and returns how long the caller must wait.
+     *
+     * @param url The URL about to be requested
+     * @param kind The request kind
+     * @return Wait time in nanoseconds (0 if the request may be sent immediately)
+     */
+    public long reserve(String url, RequestKind kind) {
+        String host = hostOf(url);
+        TokenBucket bucket = buckets.computeIfAbsent(host + "|" + kind.key, k -> createBucket(host, kind));
+        return bucket != NO_LIMIT ? bucket.reserve() : 0;
+    }
+
+    /**
+     * Blocks until a request to the host of the URL is allowed.
+     *
+     * @param url The URL about to be requested
+     * @param kind The request kind
+     * @return Time waited in milliseconds
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public long acquire(String url, RequestKind kind) throws InterruptedException {
+        long waitNanos = reserve(url, kind);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    private TokenBucket createBucket(String host, RequestKind kind) {
+        double rate = readRate(host, kind);
+        if (rate <= 0) {
+            return NO_LIMIT;
+        }
+        double burst = readDouble(host, kind.key + ".burst", 1);
+        return new TokenBucket(rate, Math.max(1, burst));
+    }
+
+    private double readRate(String host, RequestKind kind) {
+        return readDouble(host, kind.key + ".per.second", 0);
+    }
+
+    private double readDouble(String host, String suffix, double defaultValue) {
+        String value = null;
+        if (host != null) {
+            value = props.getProperty("rate.limit.host." + host + "." + suffix);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            value = props.getProperty("rate.limit." + suffix);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,163 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-26
+package org.web2book.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * On-disk cache of HTML pages for conditional requests.
+ * Each page is stored with its ETag and Last-Modified validators; on the next run the request
+ * carries If-None-Match / If-Modified-Since and a 304 response is served from the cache.
+ * Files are named after the SHA-256 of the URL: &lt;hash&gt;.html holds the body and
+ * &lt;hash&gt;.properties the validators. Both are written atomically.
+ */
+public class HttpCache {
+    private final Path cacheDir;
+    private final Logger logger;
+
+    /**
+     * A cached page with its validators (either may be null, not both).
+     */
+    public static class Entry {
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+
+        Entry(String body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * @param cacheDir Directory holding the cached pages (created if needed)
+     * @param logger Logger for cache diagnostics
+     */
+    public HttpCache(Path cacheDir, Logger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the cached page of a URL.
+     *
+     * @param url The requested URL
+     * @return The cached entry, or null if the URL is not cached (or the cache files are unreadable)
+     */
+    public Entry lookup(String url) {
+        String key = keyOf(url);
+        Path metaFile = cacheDir.resolve(key + ".properties");
+        Path bodyFile = cacheDir.resolve(key + ".html");
+        if (!Files.exists(metaFile) || !Files.exists(bodyFile)) {
+            return null;
+        }
+        try {
+            Properties meta = new Properties();
+            try (InputStream in = Files.newInputStream(metaFile)) {
+                meta.load(in);
+            }
+            if (!url.equals(meta.getProperty("url"))) {
+                return null;
+            }
+            String body = new String(Files.readAllBytes(bodyFile), StandardCharsets.UTF_8);
+            return new Entry(body, meta.getProperty("etag"), meta.getProperty("last.modified"));
+        } catch (IOException e) {
+            logger.warning("HttpCache: could not read cache entry for " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores a page if the response carries an ETag or Last-Modified validator
+     * and does not forbid storage (Cache-Control: no-store).
+     *
+     * @param url The requested URL
+     * @param body The decoded HTML body
+     * @param headers The response headers
+     */
+    public void store(String url, String body, HttpHeaders headers) {
+        String etag = headers.firstValue("ETag").orElse(null);
+        String lastModified = headers.firstValue("Last-Modified").orElse(null);
+        if (etag == null && lastModified == null) {
+            return; // Nothing to revalidate with
+        }
+        if (headers.firstValue("Cache-Control").orElse("").toLowerCase().contains("no-store")) {
+            return;
+        }
+
+        String key = keyOf(url);
+        Properties meta = new Properties();
+        meta.setProperty("url", url);
+        if (etag != null) {
+            meta.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty("last.modified", lastModified);
+        }
+        try {
+            Files.createDirectories(cacheDir);
+            // Body first: a meta file always points to a complete body
+            writeAtomically(cacheDir.resolve(key + ".html"), body.getBytes(StandardCharsets.UTF_8));
+            Path metaTemp = Files.createTempFile(cacheDir, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(metaTemp)) {
+                meta.store(out, null);
+            }
+            moveAtomically(metaTemp, cacheDir.resolve(key + ".properties"));
+        } catch (IOException e) {
+            logger.warning("HttpCache: could not store " + url + ": " + e.getMessage());
+        }
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(cacheDir, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            moveAtomically(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String keyOf(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
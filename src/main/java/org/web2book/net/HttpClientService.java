@@ -9,47 +9,243 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
+import javax.net.ssl.SSLContext;
 
 /**
  * Service for making HTTP requests with retry logic and Cloudflare protection.
  */
-public class HttpClientService {
+public class HttpClientService implements AutoCloseable {
     private static final int MAX_RETRIES = 3;
     private static final long RETRY_DELAY_MS = 750;
     private static final Duration TIMEOUT = Duration.ofSeconds(30);
     
     private final HttpClient httpClient;
     private final Logger logger;
-    private String refererUrl;
+    private final HostRateLimiter rateLimiter;
+    // Timer for async retries and rate-limit waits: nothing sleeps, the next attempt is just scheduled
+    private final ScheduledExecutorService retryTimer;
+    // Virtual-thread executor of the HttpClient (response handling), shut down by close()
+    private final ExecutorService responseExecutor;
+    private final HttpClient.Version httpVersion;
+    // Connection statistics (requests sent, responses per protocol, new TLS connections)
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong httpsRequestsSent = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong http11Responses = new AtomicLong();
+    private final AtomicLong tlsHandshakes = new AtomicLong();
+    private final AtomicLong cacheRevalidations = new AtomicLong(); // 304 responses served from the HTTP cache
+    private final HttpCache httpCache; // null when http.cache.enabled=false
 
     public HttpClientService(Logger logger) {
+        this(logger, null);
+    }
+
+    /**
+     * Creates the service with per-host rate limits read from the global properties
+     * (rate.limit.html.per.second, rate.limit.image.per.second and their .burst sizes)
+     * the connection settings http.version, http.connection.pool.size and http.keepalive.timeout.seconds,
+     * and the HTML page cache settings http.cache.enabled and http.cache.dir.
+     * 
+     * @param logger Logger for request diagnostics
+     * @param globalProps Global properties (may be null for no rate limits and default connection settings)
+     */
+    public HttpClientService(Logger logger, java.util.Properties globalProps) {
         this.logger = logger;
-        this.httpClient = HttpClient.newBuilder()
+        this.rateLimiter = new HostRateLimiter(globalProps);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "web2book-http-retry-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        java.util.Properties props = globalProps != null ? globalProps : new java.util.Properties();
+        // HTTP/2 first: all requests to a host are multiplexed over one connection.
+        // Servers without HTTP/2 are served over pooled HTTP/1.1 keep-alive connections.
+        this.httpVersion = "1.1".equals(props.getProperty("http.version", "2").trim())
+            ? HttpClient.Version.HTTP_1_1 : HttpClient.Version.HTTP_2;
+        // HTTP/1.1 pool limits are JDK system properties, read once when the first client is created
+        applyConnectionPoolProperty(props, "http.connection.pool.size", "jdk.httpclient.connectionPoolSize");
+        applyConnectionPoolProperty(props, "http.keepalive.timeout.seconds", "jdk.httpclient.keepalive.timeout");
+        
+        this.responseExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(httpVersion)
                 .connectTimeout(TIMEOUT)
                 .followRedirects(HttpClient.Redirect.NORMAL) // Follow redirects (301, 302, 303, 307, 308)
                 // Enable automatic decompression of gzip, deflate, and br
-                .build();
+                // Response handling runs on virtual threads, like the downloads themselves
+                .executor(responseExecutor);
+        try {
+            // Count TLS handshakes to measure connection reuse
+            builder.sslContext(new CountingSslContext(SSLContext.getDefault(), tlsHandshakes));
+        } catch (NoSuchAlgorithmException e) {
+            logger.warning("Could not wrap default SSL context, TLS handshakes will not be counted: " + e.getMessage());
+        }
+        this.httpClient = builder.build();
+        
+        // Conditional-request cache for HTML pages (starting page, chapter pages)
+        if ("true".equalsIgnoreCase(props.getProperty("http.cache.enabled", "false").trim())) {
+            Path cacheDir = Paths.get(props.getProperty("http.cache.dir", "cache/http").trim());
+            this.httpCache = new HttpCache(cacheDir, logger);
+            logger.info("HTTP cache for HTML pages: " + cacheDir.toAbsolutePath());
+        } else {
+            this.httpCache = null;
+        }
+        
+        logger.info("HTTP client: " + (httpVersion == HttpClient.Version.HTTP_2 ? "HTTP/2 first" : "HTTP/1.1") + 
+            ", connection pool size: " + System.getProperty("jdk.httpclient.connectionPoolSize", "unlimited") + 
+            ", keep-alive timeout: " + System.getProperty("jdk.httpclient.keepalive.timeout", "default") + "s");
     }
 
     /**
-     * Sets the referer URL for subsequent requests.
+     * Sets a JDK HttpClient system property from the global properties, unless it was
+     * already set on the command line (-D), which takes precedence.
      */
-    public void setRefererUrl(String refererUrl) {
-        this.refererUrl = refererUrl;
+    private static void applyConnectionPoolProperty(java.util.Properties props, String key, String systemProperty) {
+        String value = props.getProperty(key);
+        if (value != null && !value.trim().isEmpty() && System.getProperty(systemProperty) == null) {
+            System.setProperty(systemProperty, value.trim());
+        }
     }
 
     /**
-     * Fetches HTML content from a URL with retry logic.
+     * Stops the response executor and the retry timer, once all downloads are done.
+     * Requests still in flight are not waited for.
+     */
+    @Override
+    public void close() {
+        retryTimer.shutdownNow();
+        responseExecutor.shutdownNow();
+    }
+    
+    /**
+     * Logs how many requests were sent and how many new TLS connections they needed.
+     * Every request that did not need a handshake was sent over a reused connection
+     * (or an HTTP/2 stream multiplexed on an existing connection).
+     */
+    public void logConnectionStats() {
+        long requests = requestsSent.get();
+        long handshakes = tlsHandshakes.get();
+        long httpsRequests = httpsRequestsSent.get();
+        String msg = "HTTP connections: " + requests + " requests (" + http2Responses.get() + " over HTTP/2, " + 
+            http11Responses.get() + " over HTTP/1.1), " + handshakes + " TLS handshakes, " + 
+            Math.max(0, httpsRequests - handshakes) + " HTTPS requests on reused connections";
+        if (httpCache != null) {
+            msg += ", " + cacheRevalidations.get() + " pages unchanged (304, served from cache)";
+        }
+        logger.info(msg);
+        System.out.println(msg);
+    }
+
+    /**
+     * Records a response in the connection statistics.
+     */
+    private void recordResponse(HttpResponse<?> response) {
+        requestsSent.incrementAndGet();
+        if ("https".equalsIgnoreCase(response.uri().getScheme())) {
+            httpsRequestsSent.incrementAndGet();
+        }
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        } else {
+            http11Responses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks if requests of the given kind to the host of a URL are paced by the per-host rate limiter.
+     * When HTML requests to a host are limited, callers don't need their own delays between its pages.
+     * 
+     * @param url A URL of the host
+     * @param kind The request kind
+     * @return true if a rate limit above 0 applies to this host and kind
+     */
+    public boolean isRateLimited(String url, HostRateLimiter.RequestKind kind) {
+        return rateLimiter.isEnabled(url, kind);
+    }
+
+    /**
+     * Fetches HTML content from a URL with retry logic, without Referer.
      * 
      * @param url The URL to fetch
      * @return The HTML content as a string, or null if all retries failed
      */
     public String getHtml(String url) {
-        return executeWithRetry(url, true);
+        return getHtml(url, RequestContext.NONE);
+    }
+
+    /**
+     * Fetches HTML content from a URL with retry logic.
+     * 
+     * @param url The URL to fetch
+     * @param context Request context of the calling job (Referer, ...)
+     * @return The HTML content as a string, or null if all retries failed
+     */
+    public String getHtml(String url, RequestContext context) {
+        return executeWithRetry(url, true, context);
+    }
+
+    /**
+     * Fetches HTML content from a URL without blocking the calling thread.
+     * Retries and rate-limit waits are scheduled on a timer instead of sleeping on a thread.
+     * 
+     * @param url The URL to fetch
+     * @param context Request context of the calling job (Referer, ...)
+     * @return Future completed with the HTML content, or with null if all retries failed
+     */
+    public CompletableFuture<String> getHtmlAsync(String url, RequestContext context) {
+        String refererUrl = context != null ? context.getRefererUrl() : null;
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            HttpCache.Entry cached = httpCache != null ? httpCache.lookup(url) : null;
+            attemptAsync(url, HostRateLimiter.RequestKind.HTML, buildRequest(url, refererUrl, cached),
+                response -> handleHtmlResponse(response, url, cached), result, 1);
+        } catch (RuntimeException e) {
+            // Malformed URL or rejected timer: reported through the future, never thrown to the caller
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Downloads binary content from a URL without blocking the calling thread.
+     * Retries and rate-limit waits are scheduled on a timer instead of sleeping on a thread.
+     * 
+     * @param url The URL to download
+     * @param context Request context of the calling job (Referer, ...)
+     * @return Future completed with the binary content, or with null if all retries failed
+     */
+    public CompletableFuture<byte[]> downloadBinaryAsync(String url, RequestContext context) {
+        String refererUrl = context != null ? context.getRefererUrl() : null;
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            attemptAsync(url, HostRateLimiter.RequestKind.IMAGE, buildRequest(url, refererUrl, null), response -> {
+                if (response.statusCode() != 200) {
+                    throw new IOException("HTTP " + response.statusCode() + " for URL: " + url);
+                }
+                return response.body();
+            }, result, 1);
+        } catch (RuntimeException e) {
+            // Malformed URL or rejected timer: reported through the future, never thrown to the caller
+            result.completeExceptionally(e);
+        }
+        return result;
     }
 
     /**
@@ -104,16 +300,245 @@ public class HttpClientService {
     }
 
     /**
-     * Downloads binary content from a URL with retry logic.
+     * Downloads binary content from a URL with retry logic, without Referer.
      * 
      * @param url The URL to download
      * @return The binary content as a byte array, or null if all retries failed
      */
     public byte[] downloadBinary(String url) {
-        return downloadBinaryInternal(url);
+        return downloadBinary(url, RequestContext.NONE);
+    }
+
+    /**
+     * Downloads binary content from a URL with retry logic.
+     * 
+     * @param url The URL to download
+     * @param context Request context of the calling job (Referer, ...)
+     * @return The binary content as a byte array, or null if all retries failed
+     */
+    public byte[] downloadBinary(String url, RequestContext context) {
+        return downloadBinaryInternal(url, context, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Downloads binary content from a URL with retry logic, streaming the body straight to a file
+     * so memory use does not depend on the size of the download.
+     * The file is truncated at each attempt and deleted if all attempts fail, so callers should
+     * pass a temporary path and move it to its final name once the download is complete.
+     * 
+     * @param url The URL to download
+     * @param context Request context of the calling job (Referer, ...)
+     * @param targetFile The file to write the body to
+     * @return true if the file contains the complete body, false if all retries failed
+     */
+    public boolean downloadToFile(String url, RequestContext context, Path targetFile) {
+        HttpResponse.BodyHandler<Path> fileHandler = responseInfo -> responseInfo.statusCode() == 200
+            ? HttpResponse.BodySubscribers.ofFile(targetFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+            : HttpResponse.BodySubscribers.replacing(null); // Error body is discarded, not written
+        Path downloaded = downloadBinaryInternal(url, context, fileHandler);
+        if (downloaded == null) {
+            try {
+                Files.deleteIfExists(targetFile);
+            } catch (IOException e) {
+                logger.finest("downloadToFile: Could not delete incomplete file " + targetFile + ": " + e.getMessage());
+            }
+            return false;
+        }
+        return true;
     }
 
-    private String executeWithRetry(String url, boolean isHtml) {
+    /**
+     * Converts a response to the value returned to the caller, or throws if the attempt failed.
+     */
+    private interface ResponseHandler<T> {
+        T handle(HttpResponse<byte[]> response) throws IOException;
+    }
+
+    /**
+     * Runs one async attempt once the rate limiter allows it.
+     * The wait is scheduled on the retry timer, no thread is blocked.
+     */
+    private <T> void attemptAsync(String url, HostRateLimiter.RequestKind kind, HttpRequest request,
+            ResponseHandler<T> responseHandler, CompletableFuture<T> result, int attempt) {
+        if (result.isDone()) {
+            return; // Cancelled by the caller
+        }
+        try {
+            long waitNanos = rateLimiter.reserve(url, kind);
+            if (waitNanos > 0) {
+                logger.finest("Rate limiter delayed async request by " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms: " + url);
+                retryTimer.schedule(() -> sendAsync(url, kind, request, responseHandler, result, attempt),
+                    waitNanos, TimeUnit.NANOSECONDS);
+            } else {
+                sendAsync(url, kind, request, responseHandler, result, attempt);
+            }
+        } catch (Throwable e) {
+            // The future is the only way back to the caller: it must always be completed
+            result.completeExceptionally(e);
+        }
+    }
+
+    private <T> void sendAsync(String url, HostRateLimiter.RequestKind kind, HttpRequest request,
+            ResponseHandler<T> responseHandler, CompletableFuture<T> result, int attempt) {
+        if (result.isDone()) {
+            return;
+        }
+        if (attempt > 1) {
+            logger.info("Retry attempt " + attempt + "/" + MAX_RETRIES + " for URL: " + url);
+        }
+        CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            sent = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (Throwable e) {
+            result.completeExceptionally(e); // Also runs on the retry timer, where nobody would see it
+            return;
+        }
+        sent.whenComplete((response, error) -> {
+            try {
+                Throwable failure = error;
+                if (failure == null) {
+                    try {
+                        recordResponse(response);
+                        result.complete(responseHandler.handle(response));
+                        return;
+                    } catch (Exception e) {
+                        failure = e; // Retried like in executeWithRetry, whatever the exception type
+                    }
+                }
+                if (failure instanceof CompletionException && failure.getCause() != null) {
+                    failure = failure.getCause();
+                }
+                
+                if (attempt < MAX_RETRIES) {
+                    logger.warning(String.format("Attempt %d/%d failed for URL %s: %s. Retrying in %d ms...", 
+                        attempt, MAX_RETRIES, url, failure.getMessage(), RETRY_DELAY_MS));
+                    retryTimer.schedule(() -> attemptAsync(url, kind, request, responseHandler, result, attempt + 1),
+                        RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+                } else {
+                    String errorMsg = String.format("Failed to fetch %s after %d attempts: %s", 
+                        url, MAX_RETRIES, failure.getMessage());
+                    logger.severe(errorMsg);
+                    System.err.println("ERROR: " + errorMsg);
+                    result.complete(null);
+                }
+            } catch (Throwable e) {
+                // Errors and a rejected retry timer complete the future instead of leaving it pending
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Builds a GET request with the browser-like headers used for all requests.
+     * 
+     * @param url The URL to request
+     * @param refererUrl The Referer header (null for none)
+     * @param cached Cached page to revalidate (null for an unconditional request)
+     * @return The request
+     */
+    private HttpRequest buildRequest(String url, String refererUrl, HttpCache.Entry cached) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(TIMEOUT)
+                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8")
+                .header("Accept-Language", "en-US,en;q=0.5")
+                .header("Accept-Encoding", "gzip, deflate");
+                // Note: Removed "br" (Brotli) as it may not be fully supported by HttpClient
+                // Note: "Connection" header is restricted and managed automatically by HttpClient
+        
+        if (refererUrl != null) {
+            requestBuilder.header("Referer", refererUrl);
+        }
+        
+        // Conditional request: the server answers 304 Not Modified if the cached page is still current
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                requestBuilder.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                requestBuilder.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        
+        return requestBuilder.GET().build();
+    }
+
+    /**
+     * Returns the page of an HTML response: the cached page on 304, or the decoded body,
+     * which is then stored in the cache if the server sent validators.
+     * 
+     * @param response The response read as bytes
+     * @param url The requested URL
+     * @param cached The cached page sent for revalidation (null if none)
+     * @return The HTML content
+     * @throws IOException If the response is an error
+     */
+    private String handleHtmlResponse(HttpResponse<byte[]> response, String url, HttpCache.Entry cached) throws IOException {
+        if (response.statusCode() == 304 && cached != null) {
+            cacheRevalidations.incrementAndGet();
+            logger.finest("Page not modified, served from HTTP cache: " + url);
+            return cached.getBody();
+        }
+        String body = decodeHtmlResponse(response, url);
+        // Never cache a challenge page, it would be served again on the next run
+        if (httpCache != null && !isCloudflareChallenge(body)) {
+            httpCache.store(url, body, response.headers());
+        }
+        return body;
+    }
+
+    /**
+     * Decodes an HTML response (gzip/deflate handled manually), or throws if the status is not 200.
+     * 
+     * @param byteResponse The response read as bytes
+     * @param url The requested URL (for error messages)
+     * @return The HTML content
+     * @throws IOException If the status is not 200
+     */
+    private String decodeHtmlResponse(HttpResponse<byte[]> byteResponse, String url) throws IOException {
+        if (byteResponse.statusCode() == 200) {
+            byte[] responseBytes = byteResponse.body();
+            
+            // Check Content-Encoding header to determine if decompression is needed
+            String contentEncoding = byteResponse.headers().firstValue("Content-Encoding").orElse("");
+            
+            String body;
+            try {
+                if (contentEncoding.contains("gzip")) {
+                    try (GZIPInputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(responseBytes))) {
+                        body = new String(gzipIn.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                } else if (contentEncoding.contains("deflate")) {
+                    try (InflaterInputStream inflateIn = new InflaterInputStream(new ByteArrayInputStream(responseBytes))) {
+                        body = new String(inflateIn.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                } else {
+                    // No compression, decode directly as UTF-8
+                    body = new String(responseBytes, StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to decompress response (Content-Encoding: " + contentEncoding + 
+                    "): " + e.getMessage() + ". Trying direct UTF-8 decode.");
+                // Fallback: try direct UTF-8 decode
+                body = new String(responseBytes, StandardCharsets.UTF_8);
+            }
+            
+            return body;
+        } else if (byteResponse.statusCode() >= 300 && byteResponse.statusCode() < 400) {
+            // Redirect status codes (301, 302, 303, 307, 308)
+            // HttpClient should follow redirects automatically, but if we get here,
+            // it might be a redirect loop or the redirect couldn't be followed
+            String location = byteResponse.headers().firstValue("Location").orElse("unknown");
+            throw new IOException("HTTP " + byteResponse.statusCode() + " redirect to: " + location + " for URL: " + url);
+        } else {
+            throw new IOException("HTTP " + byteResponse.statusCode() + " for URL: " + url);
+        }
+    }
+
+    private String executeWithRetry(String url, boolean isHtml, RequestContext context) {
+        String refererUrl = context != null ? context.getRefererUrl() : null;
         Exception lastException = null;
         
         for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
@@ -122,65 +547,23 @@ public class HttpClientService {
                     logger.info("Retry attempt " + attempt + "/" + MAX_RETRIES + " for URL: " + url);
                 }
                 
-                HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .timeout(TIMEOUT)
-                        .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
-                        .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8")
-                        .header("Accept-Language", "en-US,en;q=0.5")
-                        .header("Accept-Encoding", "gzip, deflate");
-                        // Note: Removed "br" (Brotli) as it may not be fully supported by HttpClient
-                        // Note: "Connection" header is restricted and managed automatically by HttpClient
-                
-                // Add Referer header for HTML requests
-                if (isHtml && refererUrl != null) {
-                    requestBuilder.header("Referer", refererUrl);
+                // Wait for the per-host HTML budget
+                long waitedMs = rateLimiter.acquire(url, HostRateLimiter.RequestKind.HTML);
+                if (waitedMs > 0) {
+                    logger.finest("Rate limiter delayed HTML request by " + waitedMs + "ms: " + url);
                 }
                 
-                HttpRequest request = requestBuilder.GET().build();
+                // Add Referer header for HTML requests
+                HttpCache.Entry cached = httpCache != null ? httpCache.lookup(url) : null;
+                HttpRequest request = buildRequest(url, isHtml ? refererUrl : null, cached);
 
                 // Read response as bytes first to handle compression manually
                 // This ensures we can properly decompress gzip/deflate responses
                 HttpResponse<byte[]> byteResponse = httpClient.send(request, 
                     HttpResponse.BodyHandlers.ofByteArray());
+                recordResponse(byteResponse);
                 
-                if (byteResponse.statusCode() == 200) {
-                    byte[] responseBytes = byteResponse.body();
-                    
-                    // Check Content-Encoding header to determine if decompression is needed
-                    String contentEncoding = byteResponse.headers().firstValue("Content-Encoding").orElse("");
-                    
-                    String body;
-                    try {
-                        if (contentEncoding.contains("gzip")) {
-                            try (GZIPInputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(responseBytes))) {
-                                body = new String(gzipIn.readAllBytes(), StandardCharsets.UTF_8);
-                            }
-                        } else if (contentEncoding.contains("deflate")) {
-                            try (InflaterInputStream inflateIn = new InflaterInputStream(new ByteArrayInputStream(responseBytes))) {
-                                body = new String(inflateIn.readAllBytes(), StandardCharsets.UTF_8);
-                            }
-                        } else {
-                            // No compression, decode directly as UTF-8
-                            body = new String(responseBytes, StandardCharsets.UTF_8);
-                        }
-                    } catch (IOException e) {
-                        logger.warning("Failed to decompress response (Content-Encoding: " + contentEncoding + 
-                            "): " + e.getMessage() + ". Trying direct UTF-8 decode.");
-                        // Fallback: try direct UTF-8 decode
-                        body = new String(responseBytes, StandardCharsets.UTF_8);
-                    }
-                    
-                    return body;
-                } else if (byteResponse.statusCode() >= 300 && byteResponse.statusCode() < 400) {
-                    // Redirect status codes (301, 302, 303, 307, 308)
-                    // HttpClient should follow redirects automatically, but if we get here,
-                    // it might be a redirect loop or the redirect couldn't be followed
-                    String location = byteResponse.headers().firstValue("Location").orElse("unknown");
-                    throw new IOException("HTTP " + byteResponse.statusCode() + " redirect to: " + location + " for URL: " + url);
-                } else {
-                    throw new IOException("HTTP " + byteResponse.statusCode() + " for URL: " + url);
-                }
+                return handleHtmlResponse(byteResponse, url, cached);
             } catch (java.net.http.HttpTimeoutException e) {
                 lastException = e;
                 if (attempt < MAX_RETRIES) {
@@ -200,6 +583,10 @@ public class HttpClientService {
                         attempt, MAX_RETRIES, url));
                     System.err.println("ERROR: Request timed out after " + MAX_RETRIES + " attempts for " + url);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.severe("Interrupted while fetching " + url);
+                return null;
             } catch (Exception e) {
                 lastException = e;
                 if (attempt < MAX_RETRIES) {
@@ -247,7 +634,8 @@ public class HttpClientService {
         return (nonPrintable * 100.0 / sampleSize) > 5.0;
     }
 
-    private byte[] downloadBinaryInternal(String url) {
+    private <T> T downloadBinaryInternal(String url, RequestContext context, HttpResponse.BodyHandler<T> bodyHandler) {
+        String refererUrl = context != null ? context.getRefererUrl() : null;
         Exception lastException = null;
         long downloadStartTime = System.currentTimeMillis();
         
@@ -264,37 +652,31 @@ public class HttpClientService {
                     logger.finest("downloadBinaryInternal: Attempt " + attempt + "/" + MAX_RETRIES + " for URL: " + url);
                 }
                 
-                HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .timeout(TIMEOUT)
-                        .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
-                        .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8")
-                        .header("Accept-Language", "en-US,en;q=0.5")
-                        .header("Accept-Encoding", "gzip, deflate");
-                        // Note: Removed "br" (Brotli) as it may not be fully supported by HttpClient
-                        // Note: "Connection" header is restricted and managed automatically by HttpClient
+                // Wait for the per-host image budget
+                long waitedMs = rateLimiter.acquire(url, HostRateLimiter.RequestKind.IMAGE);
+                if (waitedMs > 0) {
+                    logger.finest("downloadBinaryInternal: Rate limiter delayed request by " + waitedMs + "ms");
+                }
                 
                 // Add Referer for image downloads
+                HttpRequest request = buildRequest(url, refererUrl, null);
                 if (refererUrl != null) {
-                    requestBuilder.header("Referer", refererUrl);
                     logger.finest("downloadBinaryInternal: Added Referer header: " + refererUrl);
                 }
-                
-                HttpRequest request = requestBuilder.GET().build();
                 logger.finest("downloadBinaryInternal: Sending HTTP request (timeout: " + TIMEOUT.getSeconds() + "s)");
 
                 long sendStartTime = System.currentTimeMillis();
-                HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                HttpResponse<T> response = httpClient.send(request, bodyHandler);
+                recordResponse(response);
                 long sendDuration = System.currentTimeMillis() - sendStartTime;
                 
                 logger.finest("downloadBinaryInternal: Received HTTP response in " + sendDuration + "ms, " +
-                    "status: " + response.statusCode() + ", body size: " + 
-                    (response.body() != null ? response.body().length : 0) + " bytes");
+                    "status: " + response.statusCode() + ", body size: " + bodySize(response.body()) + " bytes");
                 
                 if (response.statusCode() == 200) {
                     long totalDuration = System.currentTimeMillis() - downloadStartTime;
                     logger.finest("downloadBinaryInternal: Successfully downloaded " + 
-                        response.body().length + " bytes in " + totalDuration + "ms (attempt " + attempt + ")");
+                        bodySize(response.body()) + " bytes in " + totalDuration + "ms (attempt " + attempt + ")");
                     return response.body();
                 } else {
                     throw new IOException("HTTP " + response.statusCode() + " for URL: " + url);
@@ -318,6 +700,10 @@ public class HttpClientService {
                     logger.severe(String.format("Attempt %d/%d failed for binary download %s: request timed out after %dms (final attempt)", 
                         attempt, MAX_RETRIES, url, attemptDuration));
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.severe("Interrupted while downloading " + url);
+                return null;
             } catch (Exception e) {
                 lastException = e;
                 long attemptDuration = System.currentTimeMillis() - attemptStartTime;
@@ -348,5 +734,21 @@ public class HttpClientService {
         logger.finest("downloadBinaryInternal: Total download time: " + totalDuration + "ms");
         return null;
     }
-}
 
+    /**
+     * Returns the size of a binary body (byte array or file) for logging.
+     */
+    private static long bodySize(Object body) {
+        if (body instanceof byte[]) {
+            return ((byte[]) body).length;
+        }
+        if (body instanceof Path) {
+            try {
+                return Files.size((Path) body);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,45 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-25
+package org.web2book.net;
+
+import java.net.URL;
+
+/**
+ * Per-job request context (Referer, ...) passed with each request.
+ * Immutable, so several book jobs can share one HttpClientService concurrently.
+ */
+public class RequestContext {
+    /** Context without Referer. */
+    public static final RequestContext NONE = new RequestContext(null);
+
+    private final String refererUrl;
+
+    public RequestContext(String refererUrl) {
+        this.refererUrl = refererUrl;
+    }
+
+    /**
+     * Creates the context for a book: the Referer is the chapter base URL,
+     * or the root of the starting URL if no base URL is configured.
+     *
+     * @param baseUrl The chapter.base.url property (may be null)
+     * @param startingUrl The starting.url property
+     * @return The request context for this book
+     */
+    public static RequestContext forSite(String baseUrl, String startingUrl) {
+        if (baseUrl != null) {
+            return new RequestContext(baseUrl);
+        }
+        // Extract root from starting URL
+        try {
+            URL url = new URL(startingUrl);
+            return new RequestContext(url.getProtocol() + "://" + url.getHost());
+        } catch (Exception e) {
+            return new RequestContext(startingUrl);
+        }
+    }
+
+    public String getRefererUrl() {
+        return refererUrl;
+    }
+}
@@ -2,11 +2,22 @@
 // Date: 2025-11-19
 package org.web2book.pdf;
 
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFCloneUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
@@ -15,11 +26,23 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
 import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
 import org.web2book.model.ChapterContent;
 import org.web2book.log.LoggerFactory;
+import org.web2book.util.JpegHeader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -34,52 +57,90 @@ public class PdfBuilderService {
     private static final float PAGE_WIDTH = PDRectangle.A4.getWidth(); // A4 width: 595.2756 points
     private static final float CONTENT_WIDTH = PAGE_WIDTH; // Full width, no margins
     
-    // Cache the font to avoid repeated initialization and font scanning issues
-    private static PDType1Font titleFont;
-    private static PDType1Font regularFont;
-    private static boolean fontInitializationFailed = false;
-    private static final Object FONT_LOCK = new Object();
+    // Chapter title spacing: 80f top margin + 24f font size + 30f bottom margin = 134f total
+    private static final float TITLE_TOP_MARGIN = 80f; // Space from top of page (increased for better visibility)
+    private static final float TITLE_FONT_SIZE = 24f; // Font size for chapter title
+    private static final float TITLE_BOTTOM_MARGIN = 30f; // Space after title before images
+    private static final float TITLE_HEIGHT = TITLE_TOP_MARGIN + TITLE_FONT_SIZE + TITLE_BOTTOM_MARGIN; // Total: 134f
+    private static final float PLACEHOLDER_HEIGHT = 30f; // Height for placeholder text (approximate)
     
-    // Static initializer to set system properties before any font operations
-    static {
-        try {
-            // Ensure system properties are set before any font operations
-            if (System.getProperty("org.apache.pdfbox.forceSystemFontScan") == null) {
-                System.setProperty("org.apache.pdfbox.forceSystemFontScan", "false");
-            }
-            if (System.getProperty("pdfbox.fontcache") == null) {
-                System.setProperty("pdfbox.fontcache", "false");
-            }
-            if (System.getProperty("org.apache.pdfbox.disableFontCache") == null) {
-                System.setProperty("org.apache.pdfbox.disableFontCache", "true");
-            }
-        } catch (Exception e) {
-            // Ignore - properties may already be set
-        }
-    }
-    
-    // Track chapters for TOC
+    // Track chapters for TOC (first page of each chapter, so links and bookmarks need no page lookup)
     private final java.util.List<ChapterInfo> chapters = new java.util.ArrayList<>();
     private static class ChapterInfo {
         final String title;
-        final int pageNumber;
-        ChapterInfo(String title, int pageNumber) {
+        final PDPage firstPage;
+        ChapterInfo(String title, PDPage firstPage) {
             this.title = title;
-            this.pageNumber = pageNumber;
+            this.firstPage = firstPage;
         }
     }
     
+    // Pages of the PDF in order. PDFBox keeps all pages in one flat Kids array, where finding a page
+    // by index walks the array: pages are referenced from here instead, and the page tree is
+    // rebuilt balanced before saving
+    private final java.util.List<PDPage> documentPages = new java.util.ArrayList<>();
+    private static final int PAGE_TREE_FANOUT = 32; // Maximum kids per page tree node
+    
     // Title page flag
     private boolean titlePageAdded = false;
     
     // TOC content alignment - stored when title page is created
     private float tocContentStartX = 50f; // Default to margin if not set
 
+    // Peak heap usage seen while building (sampled after each chapter and before saving)
+    private long peakHeapUsedBytes = 0;
+    private final long memoryLimitMb;
+    private final Path scratchDir;
+    
+    // Parallel image preparation: workers load, decode and encode the images of upcoming chapters
+    // into their own scratch documents, the assembling thread copies them into the PDF in order
+    private final int prepareThreads;
+    private ExecutorService prepareExecutor;
+    
+    // Images embedded as-is (JPEG) vs decoded and re-encoded (other formats), updated by the workers
+    private final AtomicInteger jpegPassthroughCount = new AtomicInteger();
+    private final AtomicInteger decodedImageCount = new AtomicInteger();
+    
+    // Image objects of the PDF by SHA-256 of their file: identical images are embedded once and drawn
+    // by reference. Filled by the assembling thread, read by the workers to skip known images
+    private final java.util.Map<String, PDImageXObject> embeddedImages = new java.util.concurrent.ConcurrentHashMap<>();
+    private final AtomicInteger dedupedImageCount = new AtomicInteger();
+    
+    // Chapter fragment cache (disabled when null): chapters rendered once, volumes assembled from their pages
+    private static final String FRAGMENT_FORMAT_VERSION = "1";
+    private Path fragmentCacheDir;
+    private final java.util.Map<String, COSStream> fragmentImages = new java.util.HashMap<>(); // Encoded image hash -> copy in the PDF
+    private final AtomicInteger fragmentHits = new AtomicInteger();
+    private final AtomicInteger fragmentsRendered = new AtomicInteger();
+
     public PdfBuilderService(String bookTitle, Logger logger, java.util.Properties bookProps) {
+        this(bookTitle, logger, bookProps, -1, 1, null);
+    }
+
+    /**
+     * Creates a PDF builder with bounded memory: the content of the document (image data, page
+     * content streams) is kept in main memory up to memoryLimitMb, the rest goes to a scratch
+     * file in scratchDir. Images then no longer stay on the heap until the PDF is saved.
+     * 
+     * @param bookTitle The book title
+     * @param logger Logger for build diagnostics
+     * @param bookProps Book properties
+     * @param memoryLimitMb Main memory for document content in MB (0 = scratch file only, negative = no limit)
+     * @param prepareThreads Threads preparing the images of upcoming chapters in addChapters (1 = sequential)
+     * @param scratchDir Directory for the scratch file (null for the system temp directory)
+     */
+    public PdfBuilderService(String bookTitle, Logger logger, java.util.Properties bookProps,
+            long memoryLimitMb, int prepareThreads, Path scratchDir) {
         this.bookTitle = bookTitle;
         this.logger = logger;
         this.bookProps = bookProps;
-        this.document = new PDDocument();
+        this.memoryLimitMb = memoryLimitMb;
+        this.scratchDir = scratchDir;
+        this.prepareThreads = Math.max(1, prepareThreads);
+        
+        this.document = new PDDocument(createMemoryUsageSetting(memoryLimitMb));
+        logger.info("PDF memory: " + (memoryLimitMb < 0 ? "main memory only" : 
+            memoryLimitMb + " MB in memory, rest in scratch file") + ", image preparation threads: " + prepareThreads);
         
         // Try to initialize fonts early to catch any issues
         // This helps identify font problems before we start adding content
@@ -98,108 +159,44 @@ public class PdfBuilderService {
     }
     
     /**
-     * Gets or creates the title font, handling initialization errors gracefully.
-     * Returns null if font cannot be initialized (e.g., due to font provider issues).
-     * Uses lazy initialization to avoid font scanning issues during static initialization.
-     * PDFBox 2.0.x uses static fields for Standard14 fonts.
+     * Creates the storage setting of a document.
+     * 
+     * @param limitMb Main memory in MB (0 = scratch file only, negative = no limit)
+     * @return The memory usage setting, with the scratch file in scratchDir if set
      */
-    private PDType1Font getTitleFont() {
-        // If we've already failed to initialize fonts, don't try again
-        if (fontInitializationFailed) {
-            return null;
+    private MemoryUsageSetting createMemoryUsageSetting(long limitMb) {
+        MemoryUsageSetting memoryUsageSetting;
+        if (limitMb < 0) {
+            memoryUsageSetting = MemoryUsageSetting.setupMainMemoryOnly();
+        } else if (limitMb == 0) {
+            memoryUsageSetting = MemoryUsageSetting.setupTempFileOnly();
+        } else {
+            memoryUsageSetting = MemoryUsageSetting.setupMixed(limitMb * 1024 * 1024);
         }
-        
-        if (titleFont == null) {
-            synchronized (FONT_LOCK) {
-                if (titleFont == null && !fontInitializationFailed) {
-                    try {
-                        // PDFBox 2.0.x uses static fields: PDType1Font.HELVETICA_BOLD
-                        titleFont = PDType1Font.HELVETICA_BOLD;
-                        logger.info("Successfully initialized title font");
-                    } catch (NoClassDefFoundError e) {
-                        // Font provider class failed to initialize
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider unavailable (NoClassDefFoundError): " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        System.err.println("PDF text will not be visible. This is a known issue with PDFBox font initialization on some systems.");
-                        return null;
-                    } catch (ExceptionInInitializerError e) {
-                        // Font provider initialization failed
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider initialization failed (ExceptionInInitializerError): " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        System.err.println("PDF text will not be visible. This is a known issue with PDFBox font initialization on some systems.");
-                        return null;
-                    } catch (LinkageError e) {
-                        // Other linkage errors (includes NoClassDefFoundError and ExceptionInInitializerError, but catch explicitly above)
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider unavailable (LinkageError): " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        System.err.println("PDF text will not be visible. This is a known issue with PDFBox font initialization on some systems.");
-                        return null;
-                    } catch (Exception e) {
-                        // Any other exception - mark as failed and return null
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font initialization failed: " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        return null;
-                    }
-                }
+        if (scratchDir != null && limitMb >= 0) {
+            try {
+                Files.createDirectories(scratchDir);
+                memoryUsageSetting.setTempDir(scratchDir.toFile());
+            } catch (IOException e) {
+                logger.warning("Cannot use " + scratchDir + " for the PDF scratch file, using system temp directory: " + e.getMessage());
             }
         }
-        return titleFont;
+        return memoryUsageSetting;
     }
     
     /**
-     * Gets or creates the regular font, handling initialization errors gracefully.
-     * Returns null if font cannot be initialized.
-     * PDFBox 2.0.x uses static fields for Standard14 fonts.
+     * Returns the shared title font of PdfFontRegistry, or null if fonts could not be initialized.
+     * The registry is immutable and its font caches are pre-filled, so concurrent builders need no lock.
+     */
+    private PDType1Font getTitleFont() {
+        return PdfFontRegistry.get().getTitleFont();
+    }
+    
+    /**
+     * Returns the shared regular font of PdfFontRegistry, or null if fonts could not be initialized.
      */
     private PDType1Font getRegularFont() {
-        if (fontInitializationFailed) {
-            return null;
-        }
-        
-        if (regularFont == null) {
-            synchronized (FONT_LOCK) {
-                if (regularFont == null && !fontInitializationFailed) {
-                    try {
-                        // PDFBox 2.0.x uses static fields: PDType1Font.HELVETICA
-                        regularFont = PDType1Font.HELVETICA;
-                        logger.info("Successfully initialized regular font");
-                    } catch (NoClassDefFoundError e) {
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider unavailable (NoClassDefFoundError): " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        return null;
-                    } catch (ExceptionInInitializerError e) {
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider initialization failed (ExceptionInInitializerError): " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        return null;
-                    } catch (LinkageError e) {
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font provider unavailable (LinkageError): " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        return null;
-                    } catch (Exception e) {
-                        fontInitializationFailed = true;
-                        String errorMsg = "Font initialization failed: " + e.getMessage();
-                        logger.severe(errorMsg);
-                        System.err.println("ERROR: " + errorMsg);
-                        return null;
-                    }
-                }
-            }
-        }
-        return regularFont;
+        return PdfFontRegistry.get().getRegularFont();
     }
 
     /**
@@ -213,28 +210,196 @@ public class PdfBuilderService {
      * @param failedFilenames Set of image filenames that failed to download (for placeholders)
      */
     public void addChapter(ChapterContent chapterContent, String chapterTitle, java.util.Set<String> failedFilenames) {
+        addChapter(chapterContent, chapterTitle, failedFilenames, null, 
+            fragmentFileFor(chapterContent, chapterTitle, failedFilenames));
+    }
+    
+    /**
+     * Adds chapters to the PDF in order, preparing the images of upcoming chapters in parallel.
+     * Up to pdf.prepare.threads workers load and encode the images of the next chapters (a window
+     * of twice the number of workers) while this thread assembles the pages of the current one.
+     * 
+     * @param chapterContents The chapters, in order
+     * @param chapterTitles The title of each chapter
+     * @param failedFilenamesByChapter Chapter number to image filenames that failed to download
+     */
+    public void addChapters(List<ChapterContent> chapterContents, List<String> chapterTitles,
+            java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter) {
+        if (prepareThreads <= 1 || chapterContents.size() <= 1) {
+            for (int i = 0; i < chapterContents.size(); i++) {
+                ChapterContent chapterContent = chapterContents.get(i);
+                addChapter(chapterContent, chapterTitles.get(i), failedFilenamesFor(chapterContent, failedFilenamesByChapter));
+            }
+            return;
+        }
+        
+        // Chapters with a cached fragment are not prepared: their pages are copied as they are
+        java.util.List<Path> fragmentFiles = new java.util.ArrayList<>(chapterContents.size());
+        for (int i = 0; i < chapterContents.size(); i++) {
+            ChapterContent chapterContent = chapterContents.get(i);
+            fragmentFiles.add(fragmentFileFor(chapterContent, chapterTitles.get(i), 
+                failedFilenamesFor(chapterContent, failedFilenamesByChapter)));
+        }
+        
+        if (prepareExecutor == null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            prepareExecutor = Executors.newFixedThreadPool(prepareThreads, r -> {
+                Thread thread = new Thread(r, "web2book-pdf-prepare-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        int window = prepareThreads * 2;
+        // Prepared chapters wait in scratch files, so the window does not add to the memory limit
+        long workerMemoryLimitMb = memoryLimitMb < 0 ? -1 : 0;
+        java.util.List<Future<PreparedChapter>> prepared = new java.util.ArrayList<>();
+        try {
+            for (int i = 0; i < chapterContents.size(); i++) {
+                // Keep the window of upcoming chapters full
+                while (prepared.size() < chapterContents.size() && prepared.size() <= i + window) {
+                    Path nextFragment = fragmentFiles.get(prepared.size());
+                    if (nextFragment != null && Files.exists(nextFragment)) {
+                        prepared.add(null);
+                        continue;
+                    }
+                    ChapterContent next = chapterContents.get(prepared.size());
+                    java.util.Set<String> nextFailed = failedFilenamesFor(next, failedFilenamesByChapter);
+                    prepared.add(prepareExecutor.submit(() -> prepareInScratchDocument(next.getImageFiles(), nextFailed, workerMemoryLimitMb)));
+                }
+                
+                ChapterContent chapterContent = chapterContents.get(i);
+                addChapter(chapterContent, chapterTitles.get(i), failedFilenamesFor(chapterContent, failedFilenamesByChapter), 
+                    prepared.get(i), fragmentFiles.get(i));
+                prepared.set(i, null); // Release the prepared chapter
+            }
+        } finally {
+            // Only left over after a failure: discard prepared chapters that were not assembled
+            for (Future<PreparedChapter> future : prepared) {
+                if (future != null) {
+                    future.cancel(true);
+                    try {
+                        closeQuietly(future.get().sourceDocument);
+                    } catch (Exception e) {
+                        // Cancelled or failed, nothing to close
+                    }
+                }
+            }
+        }
+    }
+    
+    private static java.util.Set<String> failedFilenamesFor(ChapterContent chapterContent,
+            java.util.Map<Integer, java.util.Set<String>> failedFilenamesByChapter) {
+        if (failedFilenamesByChapter == null) {
+            return new java.util.HashSet<>();
+        }
+        return failedFilenamesByChapter.getOrDefault(chapterContent.getInfo().getChapterNumber(), new java.util.HashSet<>());
+    }
+    
+    private void addChapter(ChapterContent chapterContent, String chapterTitle, java.util.Set<String> failedFilenames,
+            Future<PreparedChapter> preparedChapter, Path fragmentFile) {
         try {
             List<Path> imageFiles = chapterContent.getImageFiles();
             if (imageFiles.isEmpty() && (failedFilenames == null || failedFilenames.isEmpty())) {
                 logger.warning("No images found for chapter " + chapterTitle);
+                discardPrepared(preparedChapter);
                 return;
             }
+
+            // Index of the first page of this chapter (after the title page, if added)
+            int firstPageIndex = documentPages.size();
             
-            // Get current page number (before adding new page)
-            // This will be the page number after title page (if added)
-            int pageNumber = document.getNumberOfPages() + 1;
+            // Pages rendered by an earlier run: copy them without touching the images
+            if (fragmentFile != null && Files.exists(fragmentFile)) {
+                discardPrepared(preparedChapter);
+                preparedChapter = null;
+                if (importFragment(fragmentFile)) {
+                    fragmentHits.incrementAndGet();
+                    addChapterInfo(chapterTitle, firstPageIndex);
+                    samplePeakHeapUsage();
+                    return;
+                }
+            }
             
-            // Add all images to a single long page with chapter title
-            addChapterImagesPage(imageFiles, chapterTitle, failedFilenames);
+            // Render the chapter into a fragment of its own when fragments are cached, else directly into the PDF
+            PDDocument targetDocument = fragmentFile != null ? new PDDocument(createMemoryUsageSetting(memoryLimitMb)) : document;
+            try {
+                // Use the images prepared by a worker, or prepare them now in the target document
+                PreparedChapter prepared = null;
+                if (preparedChapter != null) {
+                    try {
+                        prepared = importPreparedChapter(preparedChapter.get(), targetDocument);
+                    } catch (ExecutionException e) {
+                        logger.warning("Parallel preparation failed for chapter " + chapterTitle + ", preparing it again: " + 
+                            (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+                    }
+                }
+                if (prepared == null) {
+                    prepared = prepareChapterImages(imageFiles, failedFilenames, targetDocument);
+                }
+                
+                // Add all images to a single long page with chapter title
+                addChapterImagesPage(prepared.imageItems, chapterTitle, targetDocument);
+                
+                if (targetDocument != document) {
+                    saveFragment(targetDocument, fragmentFile);
+                    importFragmentPages(targetDocument);
+                    fragmentsRendered.incrementAndGet();
+                }
+            } finally {
+                if (targetDocument != document) {
+                    closeQuietly(targetDocument);
+                }
+            }
             
-            // Track chapter for TOC (page number is now correct after page was added)
-            chapters.add(new ChapterInfo(chapterTitle, pageNumber));
+            // Track chapter for TOC
+            addChapterInfo(chapterTitle, firstPageIndex);
             
+            // Image objects of this chapter are no longer referenced: their data lives in the document storage
+            samplePeakHeapUsage();
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.severe("Interrupted while adding chapter " + chapterTitle);
         } catch (Exception e) {
             logger.severe("Failed to add chapter " + chapterTitle + ": " + e.getMessage());
         }
     }
     
+    /**
+     * Records a chapter for the TOC and bookmarks, if any page was added for it.
+     * 
+     * @param chapterTitle The chapter title
+     * @param firstPageIndex Index of the first page of the chapter in documentPages
+     */
+    private void addChapterInfo(String chapterTitle, int firstPageIndex) {
+        if (documentPages.size() > firstPageIndex) {
+            chapters.add(new ChapterInfo(chapterTitle, documentPages.get(firstPageIndex)));
+        }
+    }
+    
+    /**
+     * Adds a page at the end of a document, and records it when the document is the PDF.
+     * 
+     * @param targetDocument The PDF or a chapter fragment
+     * @param page The page to add
+     */
+    private void appendPage(PDDocument targetDocument, PDPage page) {
+        targetDocument.addPage(page);
+        if (targetDocument == document) {
+            documentPages.add(page);
+        }
+    }
+    
+    /**
+     * Removes the last pages of the PDF, keeping the first pageCount pages.
+     */
+    private void truncatePages(int pageCount) {
+        while (documentPages.size() > pageCount) {
+            document.removePage(documentPages.remove(documentPages.size() - 1));
+        }
+    }
+    
     /**
      * Adds the title page with book title and table of contents.
      * This should be called before adding chapters.
@@ -249,7 +414,7 @@ public class PdfBuilderService {
         
         try {
             PDPage titlePage = new PDPage(PDRectangle.A4);
-            document.addPage(titlePage);
+            appendPage(document, titlePage);
             titlePageAdded = true;
             
             float pageHeight = PDRectangle.A4.getHeight();
@@ -423,7 +588,7 @@ public class PdfBuilderService {
         
         try {
             // Title page is page 0 (first page)
-            PDPage titlePage = document.getPage(0);
+            PDPage titlePage = documentPages.get(0);
             float pageHeight = PDRectangle.A4.getHeight();
             float margin = 50f;
             float lineHeight = 16f; // Match the reduced line height used in addTitlePage
@@ -458,12 +623,9 @@ public class PdfBuilderService {
                 
                 // Create link annotation
                 try {
-                    // Get the target page (chapter page, accounting for title page)
-                    PDPage targetPage = document.getPage(chapter.pageNumber - 1);
-                    
-                    // Create destination
+                    // Create destination (first page of the chapter)
                     PDPageFitDestination destination = new PDPageFitDestination();
-                    destination.setPage(targetPage);
+                    destination.setPage(chapter.firstPage);
                     
                     // Create action
                     PDActionGoTo action = new PDActionGoTo();
@@ -522,7 +684,7 @@ public class PdfBuilderService {
         }
         
         PDPage page = new PDPage(PDRectangle.A4);
-        document.addPage(page);
+        appendPage(document, page);
         
         PDPageContentStream contentStream = null;
         try {
@@ -536,11 +698,11 @@ public class PdfBuilderService {
             contentStream.endText();
         } catch (LinkageError e) {
             // Font provider issues (NoClassDefFoundError, ExceptionInInitializerError, etc.) - remove page and rethrow
-            document.removePage(document.getNumberOfPages() - 1);
+            truncatePages(documentPages.size() - 1);
             throw new IOException("Font provider unavailable: " + e.getMessage(), e);
         } catch (Exception e) {
             // Any other error - remove page and rethrow
-            document.removePage(document.getNumberOfPages() - 1);
+            truncatePages(documentPages.size() - 1);
             throw new IOException("Failed to add chapter title page: " + e.getMessage(), e);
         } finally {
             // Ensure contentStream is always closed
@@ -562,12 +724,14 @@ public class PdfBuilderService {
         final String placeholderText;
         final String filename;
         final boolean isPlaceholder;
+        final String contentHash; // SHA-256 of the image file, null if unknown
         
-        ImageItem(PDImageXObject image, String filename) {
+        ImageItem(PDImageXObject image, String filename, String contentHash) {
             this.image = image;
             this.placeholderText = null;
             this.filename = filename;
             this.isPlaceholder = false;
+            this.contentHash = contentHash;
         }
         
         ImageItem(String placeholderText, String filename) {
@@ -575,41 +739,296 @@ public class PdfBuilderService {
             this.placeholderText = placeholderText;
             this.filename = filename;
             this.isPlaceholder = true;
+            this.contentHash = null;
         }
     }
     
     /**
-     * Adds all images from a chapter to one or more pages.
-     * Images are stacked vertically, each using full width (A4 width, no margins).
-     * Chapter title is added at the top of each page.
-     * The page height is calculated to fit images plus title.
-     * If max.images.per.page is set, images are split across multiple pages.
+     * Enables the chapter fragment cache: each chapter is rendered once into a PDF of its own in
+     * fragmentCacheDir, and volumes are assembled by copying the pages of the fragments, whose image
+     * streams are copied as they are (never decoded). Fragments are keyed by the chapter title,
+     * the page layout properties and the image files (path, size, modification time), so a changed
+     * chapter is rendered again. Re-splitting a series into volumes of another size reuses them all.
      * 
-     * @param imageFiles List of image files to add
-     * @param chapterTitle Title of the chapter to display at the top
-     * @param failedFilenames Set of image filenames that failed to download (for placeholders)
+     * @param fragmentCacheDir Directory of the fragments (null to disable the cache)
      */
-    private void addChapterImagesPage(List<Path> imageFiles, String chapterTitle, java.util.Set<String> failedFilenames) throws IOException {
-        // Get max images per page from properties (default: no limit if not specified)
-        // If max.images.per.page is not provided, all images go on a single page
-        int maxImagesPerPage = Integer.MAX_VALUE; // No limit by default
-        String maxImagesStr = bookProps.getProperty("max.images.per.page");
-        logger.info("Reading max.images.per.page property: " + maxImagesStr);
-        if (maxImagesStr != null && !maxImagesStr.trim().isEmpty()) {
+    public void setFragmentCacheDir(Path fragmentCacheDir) {
+        this.fragmentCacheDir = fragmentCacheDir;
+    }
+    
+    /**
+     * Returns the fragment file of a chapter for the current render settings.
+     * 
+     * @return The fragment file (may not exist yet), or null if fragments are not cached
+     */
+    private Path fragmentFileFor(ChapterContent chapterContent, String chapterTitle, java.util.Set<String> failedFilenames) {
+        if (fragmentCacheDir == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+            key.append(FRAGMENT_FORMAT_VERSION).append('\n');
+            key.append(chapterTitle).append('\n');
+            key.append(bookProps.getProperty("max.images.per.page", "")).append('\n');
+            key.append(bookProps.getProperty("max.page.height", "")).append('\n');
+            for (Path imageFile : chapterContent.getImageFiles()) {
+                key.append(imageFile.toAbsolutePath()).append('|');
+                if (Files.exists(imageFile)) {
+                    key.append(Files.size(imageFile)).append('|').append(Files.getLastModifiedTime(imageFile).toMillis());
+                } else {
+                    key.append("missing");
+                }
+                key.append('\n');
+            }
+            if (failedFilenames != null) {
+                key.append(new java.util.TreeSet<>(failedFilenames));
+            }
+            String hash = HexFormat.of().formatHex(digest.digest(key.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            return fragmentCacheDir.resolve("chapter-" + chapterContent.getInfo().getChapterNumber() + "-" + 
+                hash.substring(0, 16) + ".pdf");
+        } catch (IOException e) {
+            logger.warning("Cannot compute fragment key for chapter " + chapterTitle + ", not caching it: " + e.getMessage());
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Saves a rendered chapter as its fragment, replacing the fragments of the chapter rendered with other settings.
+     */
+    private void saveFragment(PDDocument fragment, Path fragmentFile) {
+        try {
+            Files.createDirectories(fragmentFile.getParent());
+            String fileName = fragmentFile.getFileName().toString();
+            String chapterPrefix = fileName.substring(0, fileName.lastIndexOf('-') + 1);
+            try (java.util.stream.Stream<Path> stale = Files.list(fragmentFile.getParent())) {
+                for (Path file : (Iterable<Path>) stale::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith(chapterPrefix) && name.endsWith(".pdf") && !name.equals(fileName)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            Path partFile = fragmentFile.resolveSibling(fileName + ".part");
+            fragment.save(partFile.toFile());
             try {
-                maxImagesPerPage = Integer.parseInt(maxImagesStr.trim());
-                logger.info("Parsed max.images.per.page = " + maxImagesPerPage);
-                if (maxImagesPerPage <= 0) {
-                    logger.warning("max.images.per.page is <= 0, using no limit");
-                    maxImagesPerPage = Integer.MAX_VALUE; // Invalid value, use no limit
+                Files.move(partFile, fragmentFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile, fragmentFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to save PDF fragment " + fragmentFile + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Copies the pages of a cached fragment into the PDF.
+     * 
+     * @return true if the pages were copied, false if the fragment is unreadable (it is deleted, to be rendered again)
+     */
+    private boolean importFragment(Path fragmentFile) {
+        int pagesBefore = documentPages.size();
+        try (PDDocument fragment = PDDocument.load(fragmentFile.toFile(), createMemoryUsageSetting(0))) {
+            importFragmentPages(fragment);
+            return true;
+        } catch (IOException e) {
+            logger.warning("Unreadable PDF fragment " + fragmentFile + ", rendering the chapter again: " + e.getMessage());
+            truncatePages(pagesBefore);
+            try {
+                Files.deleteIfExists(fragmentFile);
+            } catch (IOException deleteError) {
+                logger.finest("Failed to delete fragment " + fragmentFile + ": " + deleteError.getMessage());
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Copies the pages of a fragment to the end of the PDF. Content streams and fonts are copied,
+     * image streams are copied raw, and an image whose encoded data is already in the PDF (same
+     * image in another chapter) is drawn by reference instead of being copied again.
+     */
+    private void importFragmentPages(PDDocument fragment) throws IOException {
+        PDFCloneUtility cloneUtility = new PDFCloneUtility(document);
+        for (PDPage page : fragment.getPages()) {
+            COSDictionary pageDict = page.getCOSObject();
+            COSDictionary resources = (COSDictionary) pageDict.getDictionaryObject(COSName.RESOURCES);
+            COSDictionary xObjects = resources != null ? (COSDictionary) resources.getDictionaryObject(COSName.XOBJECT) : null;
+            
+            // Copy the page without its parent (the fragment page tree) and without its images
+            pageDict.removeItem(COSName.PARENT);
+            if (resources != null) {
+                resources.removeItem(COSName.XOBJECT);
+            }
+            COSDictionary clonedPage = (COSDictionary) cloneUtility.cloneForNewDocument(pageDict);
+            
+            if (xObjects != null) {
+                COSDictionary clonedXObjects = new COSDictionary();
+                for (COSName name : xObjects.keySet()) {
+                    COSBase xObject = xObjects.getDictionaryObject(name);
+                    if (xObject instanceof COSStream && ((COSStream) xObject).getDictionaryObject(COSName.SMASK) == null) {
+                        clonedXObjects.setItem(name, importImageStream((COSStream) xObject, cloneUtility));
+                    } else {
+                        clonedXObjects.setItem(name, cloneUtility.cloneForNewDocument(xObject));
+                    }
                 }
-            } catch (NumberFormatException e) {
-                logger.warning("Invalid max.images.per.page value: " + maxImagesStr + ", using no limit");
+                COSDictionary clonedResources = (COSDictionary) clonedPage.getDictionaryObject(COSName.RESOURCES);
+                if (clonedResources == null) {
+                    clonedResources = new COSDictionary();
+                    clonedPage.setItem(COSName.RESOURCES, clonedResources);
+                }
+                clonedResources.setItem(COSName.XOBJECT, clonedXObjects);
             }
-        } else {
-            logger.info("max.images.per.page not specified, using no limit (all images on one page)");
+            appendPage(document, new PDPage(clonedPage));
         }
-        // If maxImagesPerPage is still Integer.MAX_VALUE, all images will be on one page
+    }
+    
+    /**
+     * Copies an image stream of a fragment into the PDF, or returns the copy made for an identical
+     * image (same encoded data and image attributes) of an earlier fragment.
+     */
+    private COSStream importImageStream(COSStream imageStream, PDFCloneUtility cloneUtility) throws IOException {
+        String key;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((imageStream.getDictionaryObject(COSName.FILTER) + "|" + imageStream.getInt(COSName.WIDTH) + "|" + 
+                imageStream.getInt(COSName.HEIGHT) + "|" + imageStream.getInt(COSName.BITS_PER_COMPONENT) + "|" + 
+                imageStream.getDictionaryObject(COSName.COLORSPACE) + "|").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = imageStream.createRawInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            key = HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        COSStream imported = fragmentImages.get(key);
+        if (imported != null) {
+            dedupedImageCount.incrementAndGet();
+            return imported;
+        }
+        imported = (COSStream) cloneUtility.cloneForNewDocument(imageStream);
+        fragmentImages.put(key, imported);
+        return imported;
+    }
+    
+    private void discardPrepared(Future<PreparedChapter> preparedChapter) throws InterruptedException {
+        if (preparedChapter == null) {
+            return;
+        }
+        try {
+            closeQuietly(preparedChapter.get().sourceDocument);
+        } catch (ExecutionException e) {
+            // Nothing was prepared
+        }
+    }
+    
+    /**
+     * Images and placeholders of a chapter, in page order.
+     * The image objects belong to sourceDocument, or to the PDF itself when sourceDocument is null.
+     */
+    private static class PreparedChapter {
+        final java.util.List<ImageItem> imageItems;
+        final PDDocument sourceDocument;
+        
+        PreparedChapter(java.util.List<ImageItem> imageItems, PDDocument sourceDocument) {
+            this.imageItems = imageItems;
+            this.sourceDocument = sourceDocument;
+        }
+    }
+    
+    /**
+     * Prepares the images of a chapter in a scratch document of its own (worker threads).
+     * 
+     * @param imageFiles The image files of the chapter
+     * @param failedFilenames Image filenames that failed to download
+     * @param workerMemoryLimitMb Main memory for the scratch document in MB
+     * @return The prepared chapter, to be imported with importPreparedChapter
+     */
+    private PreparedChapter prepareInScratchDocument(List<Path> imageFiles, java.util.Set<String> failedFilenames,
+            long workerMemoryLimitMb) {
+        PDDocument scratchDocument = new PDDocument(createMemoryUsageSetting(workerMemoryLimitMb));
+        try {
+            return prepareChapterImages(imageFiles, failedFilenames, scratchDocument);
+        } catch (RuntimeException e) {
+            closeQuietly(scratchDocument);
+            throw e;
+        }
+    }
+    
+    /**
+     * Copies the image objects of a chapter prepared by a worker into the PDF (or the chapter
+     * fragment being rendered), then closes its scratch document.
+     * Copying the already encoded streams is much cheaper than decoding and encoding the images.
+     * 
+     * @param prepared The chapter prepared in a scratch document
+     * @param targetDocument The document the chapter pages are drawn in
+     * @return The chapter with image objects belonging to the target document
+     * @throws IOException If an image cannot be copied
+     */
+    private PreparedChapter importPreparedChapter(PreparedChapter prepared, PDDocument targetDocument) throws IOException {
+        if (prepared.sourceDocument == null) {
+            return prepared;
+        }
+        try {
+            PDFCloneUtility cloneUtility = new PDFCloneUtility(targetDocument);
+            java.util.List<ImageItem> imported = new java.util.ArrayList<>(prepared.imageItems.size());
+            for (ImageItem item : prepared.imageItems) {
+                if (item.isPlaceholder) {
+                    imported.add(item);
+                    continue;
+                }
+                // Identical image already in the PDF (possibly embedded since the worker looked): draw it by reference
+                PDImageXObject embedded = item.contentHash != null && targetDocument == document ? 
+                    embeddedImages.get(item.contentHash) : null;
+                if (embedded != null) {
+                    if (item.image != null) {
+                        dedupedImageCount.incrementAndGet();
+                    }
+                    imported.add(new ImageItem(embedded, item.filename, item.contentHash));
+                    continue;
+                }
+                COSStream clonedStream = (COSStream) cloneUtility.cloneForNewDocument(item.image.getCOSObject());
+                PDImageXObject clonedImage = new PDImageXObject(new PDStream(clonedStream), null);
+                if (item.contentHash != null && targetDocument == document) {
+                    embeddedImages.put(item.contentHash, clonedImage);
+                }
+                imported.add(new ImageItem(clonedImage, item.filename, item.contentHash));
+            }
+            return new PreparedChapter(imported, null);
+        } finally {
+            closeQuietly(prepared.sourceDocument);
+        }
+    }
+    
+    private void closeQuietly(PDDocument scratchDocument) {
+        if (scratchDocument == null) {
+            return;
+        }
+        try {
+            scratchDocument.close();
+        } catch (IOException e) {
+            logger.finest("Failed to close scratch document: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Loads the images of a chapter as image objects of the target document, with placeholders
+     * for failed or unreadable images, sorted by numeric filename.
+     * Only touches the target document, so it can run on a worker thread with a scratch document.
+     * 
+     * @param imageFiles List of image files to add
+     * @param failedFilenames Set of image filenames that failed to download (for placeholders)
+     * @param targetDocument The document the image objects are created in
+     * @return The prepared chapter
+     */
+    private PreparedChapter prepareChapterImages(List<Path> imageFiles, java.util.Set<String> failedFilenames,
+            PDDocument targetDocument) {
         // Ensure images are sorted by numeric filename (e.g., "1.jpg", "2.jpg", "10.jpg")
         // This prevents ordering issues when images are loaded from disk
         List<Path> sortedImageFiles = new java.util.ArrayList<>(imageFiles);
@@ -630,18 +1049,8 @@ public class PdfBuilderService {
         
         // Structure to hold image items (either actual images or placeholders)
         java.util.List<ImageItem> imageItems = new java.util.ArrayList<>();
-        float totalHeight = 0f;
-        
-        // Add space for chapter title at the top - reserve more space to ensure visibility
-        // Title spacing: 80f top margin + 24f font size + 30f bottom margin = 134f total
-        float titleTopMargin = 80f; // Space from top of page (increased for better visibility)
-        float titleFontSize = 24f; // Font size for chapter title
-        float titleBottomMargin = 30f; // Space after title before images
-        float titleHeight = titleTopMargin + titleFontSize + titleBottomMargin; // Total: 134f
-        totalHeight += titleHeight;
-        
-        // Placeholder text height (approximate)
-        float placeholderHeight = 30f; // Height for placeholder text
+        // Images of this chapter by content hash, so a repeated image is created once
+        java.util.Map<String, PDImageXObject> chapterImages = new java.util.HashMap<>();
         
         // Process existing image files
         for (Path imageFile : sortedImageFiles) {
@@ -651,32 +1060,45 @@ public class PdfBuilderService {
                     // File doesn't exist - check if it's a failed download
                     if (failedFilenames != null && failedFilenames.contains(filename)) {
                         imageItems.add(new ImageItem("[Image could not be downloaded: " + filename + "]", filename));
-                        totalHeight += placeholderHeight;
                     } else {
                         imageItems.add(new ImageItem("[Image can not be read: " + filename + "]", filename));
-                        totalHeight += placeholderHeight;
                     }
                     continue;
                 }
                 
-                byte[] imageBytes = Files.readAllBytes(imageFile);
-                PDImageXObject pdImage = PDImageXObject.createFromByteArray(document, imageBytes, filename);
-                imageItems.add(new ImageItem(pdImage, filename));
-                
-                // Calculate scaled dimensions for full width
-                float imageWidth = pdImage.getWidth();
-                float imageHeight = pdImage.getHeight();
-                
-                // Scale to full page width while maintaining aspect ratio
-                float scale = CONTENT_WIDTH / imageWidth;
-                float scaledHeight = imageHeight * scale;
+                // Identical image already embedded (credits, banners, watermarks): draw it by reference
+                String contentHash = contentHash(imageFile);
+                PDImageXObject pdImage = embeddedImages.get(contentHash);
+                if (pdImage != null) {
+                    dedupedImageCount.incrementAndGet();
+                    // From a worker, the image object of the PDF is resolved by importPreparedChapter
+                    imageItems.add(new ImageItem(targetDocument == document ? pdImage : null, filename, contentHash));
+                    continue;
+                }
+                pdImage = chapterImages.get(contentHash);
+                if (pdImage != null) {
+                    dedupedImageCount.incrementAndGet();
+                    imageItems.add(new ImageItem(pdImage, filename, contentHash));
+                    continue;
+                }
                 
-                totalHeight += scaledHeight;
+                pdImage = createJpegPassthrough(targetDocument, imageFile);
+                if (pdImage != null) {
+                    jpegPassthroughCount.incrementAndGet();
+                } else {
+                    byte[] imageBytes = Files.readAllBytes(imageFile);
+                    pdImage = PDImageXObject.createFromByteArray(targetDocument, imageBytes, filename);
+                    decodedImageCount.incrementAndGet();
+                }
+                chapterImages.put(contentHash, pdImage);
+                if (targetDocument == document) {
+                    embeddedImages.put(contentHash, pdImage);
+                }
+                imageItems.add(new ImageItem(pdImage, filename, contentHash));
             } catch (IOException e) {
                 // Image can't be read from filesystem
                 logger.warning("Failed to load image " + imageFile + ": " + e.getMessage());
                 imageItems.add(new ImageItem("[Image can not be read: " + filename + "]", filename));
-                totalHeight += placeholderHeight;
             } catch (Exception e) {
                 // Unsupported image type or other error
                 String errorMsg = e.getMessage();
@@ -687,7 +1109,6 @@ public class PdfBuilderService {
                     logger.severe("Failed to process image " + filename + ": " + errorMsg);
                     imageItems.add(new ImageItem("[Image can not be read: " + filename + "]", filename));
                 }
-                totalHeight += placeholderHeight;
             }
         }
         
@@ -699,7 +1120,6 @@ public class PdfBuilderService {
                     .anyMatch(item -> item.filename.equals(failedFilename));
                 if (!alreadyProcessed) {
                     imageItems.add(new ImageItem("[Image could not be downloaded: " + failedFilename + "]", failedFilename));
-                    totalHeight += placeholderHeight;
                 }
             }
         }
@@ -719,11 +1139,101 @@ public class PdfBuilderService {
             return 0;
         }));
         
+        return new PreparedChapter(imageItems, targetDocument == document ? null : targetDocument);
+    }
+    
+    /**
+     * Computes the SHA-256 of an image file, used to recognize identical images.
+     * 
+     * @param imageFile The image file
+     * @return The hash as a hex string
+     * @throws IOException If the file cannot be read
+     */
+    private static String contentHash(Path imageFile) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(imageFile)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Embeds a JPEG file as-is in a DCTDecode stream, with width, height and color space taken
+     * from its frame header: the pixels are never decoded or re-encoded, and the original quality is kept.
+     * 
+     * @param targetDocument The document the image object is created in
+     * @param imageFile The image file
+     * @return The image object, or null if the file is not a JPEG that can be embedded as-is
+     *         (other formats, CMYK, 12-bit or arithmetic-coded JPEG), to be decoded instead
+     * @throws IOException If the file cannot be read
+     */
+    private PDImageXObject createJpegPassthrough(PDDocument targetDocument, Path imageFile) throws IOException {
+        JpegHeader header = JpegHeader.read(imageFile);
+        if (header == null || !header.isPdfPassthroughCompatible()) {
+            return null;
+        }
+        PDColorSpace colorSpace = header.getComponents() == 1 ? PDDeviceGray.INSTANCE : PDDeviceRGB.INSTANCE;
+        try (InputStream in = Files.newInputStream(imageFile)) {
+            return new PDImageXObject(targetDocument, in, COSName.DCT_DECODE,
+                header.getWidth(), header.getHeight(), header.getPrecision(), colorSpace);
+        }
+    }
+    
+    /**
+     * Adds all images from a chapter to one or more pages.
+     * Images are stacked vertically, each using full width (A4 width, no margins).
+     * Chapter title is added at the top of each page.
+     * The page height is calculated to fit images plus title.
+     * If max.images.per.page is set, images are split across multiple pages.
+     * If max.page.height is set, pages are cut on height instead (see addChapterImagePagesByHeight).
+     * 
+     * @param imageItems Images and placeholders of the chapter, in order (image objects belong to the target document)
+     * @param chapterTitle Title of the chapter to display at the top
+     * @param targetDocument The document the pages are added to (the PDF or a chapter fragment)
+     */
+    private void addChapterImagesPage(java.util.List<ImageItem> imageItems, String chapterTitle,
+            PDDocument targetDocument) throws IOException {
+        // Get max images per page from properties (default: no limit if not specified)
+        // If max.images.per.page is not provided, all images go on a single page
+        int maxImagesPerPage = Integer.MAX_VALUE; // No limit by default
+        String maxImagesStr = bookProps.getProperty("max.images.per.page");
+        logger.info("Reading max.images.per.page property: " + maxImagesStr);
+        if (maxImagesStr != null && !maxImagesStr.trim().isEmpty()) {
+            try {
+                maxImagesPerPage = Integer.parseInt(maxImagesStr.trim());
+                logger.info("Parsed max.images.per.page = " + maxImagesPerPage);
+                if (maxImagesPerPage <= 0) {
+                    logger.warning("max.images.per.page is <= 0, using no limit");
+                    maxImagesPerPage = Integer.MAX_VALUE; // Invalid value, use no limit
+                }
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid max.images.per.page value: " + maxImagesStr + ", using no limit");
+            }
+        } else {
+            logger.info("max.images.per.page not specified, using no limit (all images on one page)");
+        }
+        // If maxImagesPerPage is still Integer.MAX_VALUE, all images will be on one page
+        
         if (imageItems.isEmpty()) {
             logger.warning("No images or placeholders found for chapter " + chapterTitle);
             return;
         }
         
+        // Height-bounded pages take precedence over max.images.per.page
+        float maxPageHeight = readMaxPageHeight();
+        if (maxPageHeight > 0) {
+            addChapterImagePagesByHeight(imageItems, chapterTitle, maxPageHeight, targetDocument);
+            return;
+        }
+        
         // Split images into chunks based on maxImagesPerPage
         int totalImages = imageItems.size();
         
@@ -753,10 +1263,10 @@ public class PdfBuilderService {
             
             // Calculate height for this page's images
             // Only reserve title space on the first page of the chapter
-            float pageHeight = (pageIndex == 0) ? titleHeight : 0f; // Start with title height only on first page
+            float pageHeight = (pageIndex == 0) ? TITLE_HEIGHT : 0f; // Start with title height only on first page
             for (ImageItem item : pageImageItems) {
                 if (item.isPlaceholder) {
-                    pageHeight += placeholderHeight;
+                    pageHeight += PLACEHOLDER_HEIGHT;
                 } else {
                     float imageWidth = item.image.getWidth();
                     float imageHeight = item.image.getHeight();
@@ -769,7 +1279,7 @@ public class PdfBuilderService {
             // Create page for this chunk
             PDRectangle customPageSize = new PDRectangle(PAGE_WIDTH, pageHeight);
             PDPage page = new PDPage(customPageSize);
-            document.addPage(page);
+            appendPage(targetDocument, page);
             
             // Build page title (full chapter title only on first page, add page numbers on subsequent pages)
             String pageTitle = chapterTitle;
@@ -778,39 +1288,14 @@ public class PdfBuilderService {
             }
             
             // Draw chapter title and images for this page
-            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+            try (PDPageContentStream contentStream = new PDPageContentStream(targetDocument, page)) {
                 float currentY = pageHeight; // Start from top of page
                 
                 // Draw chapter title at the top (only on first page of chapter)
                 if (pageIndex == 0) {
-                    PDType1Font titleFont = getTitleFont();
-                    
-                    if (titleFont != null) {
-                        try {
-                            contentStream.setNonStrokingColor(0, 0, 0);
-                            contentStream.beginText();
-                            contentStream.setFont(titleFont, titleFontSize);
-                            float titleWidth = titleFont.getStringWidth(pageTitle) / 1000f * titleFontSize;
-                            float titleX = (PAGE_WIDTH - titleWidth) / 2f;
-                            // Position title: Y coordinate from bottom of page (PDF coordinate system)
-                            float titleY = pageHeight - titleTopMargin;
-                            contentStream.newLineAtOffset(titleX, titleY);
-                            contentStream.showText(pageTitle);
-                            contentStream.endText();
-                            // Set currentY to position where images should start (below title)
-                            currentY = pageHeight - titleTopMargin - titleFontSize - titleBottomMargin;
-                            logger.info("Chapter title drawn at start of chapter: " + pageTitle + " at Y=" + titleY);
-                        } catch (Exception e) {
-                            logger.severe("Failed to draw chapter title: " + e.getMessage());
-                            e.printStackTrace();
-                            currentY = pageHeight - titleTopMargin - titleFontSize - titleBottomMargin;
-                        }
-                    } else {
-                        String errorMsg = "Cannot draw chapter title - font unavailable for: " + pageTitle;
-                        logger.severe(errorMsg);
-                        // Still reserve space for title even if we can't draw it, so images start below where title would be
-                        currentY = pageHeight - titleTopMargin - titleFontSize - titleBottomMargin;
-                    }
+                    // Images start below the title (space is reserved even if the title cannot be drawn)
+                    drawChapterTitle(contentStream, pageTitle, pageHeight);
+                    currentY = pageHeight - TITLE_HEIGHT;
                 }
                 // Note: For subsequent pages (pageIndex > 0), currentY starts at pageHeight (top of page)
                 // since no title space was reserved for those pages
@@ -820,25 +1305,8 @@ public class PdfBuilderService {
                 for (ImageItem item : pageImageItems) {
                     if (item.isPlaceholder) {
                         // Draw placeholder text
-                        if (regularFont != null) {
-                            try {
-                                contentStream.setNonStrokingColor(0.5f, 0.5f, 0.5f);
-                                contentStream.beginText();
-                                contentStream.setFont(regularFont, 12f);
-                                float textWidth = regularFont.getStringWidth(item.placeholderText) / 1000f * 12f;
-                                float textX = (PAGE_WIDTH - textWidth) / 2f;
-                                currentY -= placeholderHeight;
-                                contentStream.newLineAtOffset(textX, currentY);
-                                contentStream.showText(item.placeholderText);
-                                contentStream.endText();
-                                contentStream.setNonStrokingColor(0, 0, 0);
-                            } catch (Exception e) {
-                                logger.warning("Failed to draw placeholder text: " + e.getMessage());
-                                currentY -= placeholderHeight;
-                            }
-                        } else {
-                            currentY -= placeholderHeight;
-                        }
+                        currentY -= PLACEHOLDER_HEIGHT;
+                        drawPlaceholder(contentStream, regularFont, item.placeholderText, currentY);
                     } else {
                         // Draw actual image
                         PDImageXObject pdImage = item.image;
@@ -873,6 +1341,267 @@ public class PdfBuilderService {
             totalPlaceholderCount + " placeholders across " + pageCount + " page(s)");
     }
 
+    /**
+     * Reads max.page.height: the maximum height of a chapter page in points (not set = no limit).
+     * 
+     * @return The maximum page height, or 0 if pages are not split on height
+     */
+    private float readMaxPageHeight() {
+        String maxHeightStr = bookProps.getProperty("max.page.height");
+        if (maxHeightStr == null || maxHeightStr.trim().isEmpty()) {
+            return 0f;
+        }
+        try {
+            float maxPageHeight = Float.parseFloat(maxHeightStr.trim());
+            if (maxPageHeight <= 0) {
+                logger.warning("max.page.height is <= 0, not splitting pages on height");
+                return 0f;
+            }
+            // A page must at least hold the chapter title and one placeholder
+            return Math.max(maxPageHeight, TITLE_HEIGHT + PLACEHOLDER_HEIGHT);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid max.page.height value: " + maxHeightStr + ", not splitting pages on height");
+            return 0f;
+        }
+    }
+    
+    /**
+     * A vertical part of an image or placeholder laid out on a page.
+     * For images, offsetInItem is the distance from the top of the image to the top of the part.
+     */
+    private static class PageSlice {
+        final ImageItem item;
+        final float itemHeight;
+        final float offsetInItem;
+        final float height;
+        
+        PageSlice(ImageItem item, float itemHeight, float offsetInItem, float height) {
+            this.item = item;
+            this.itemHeight = itemHeight;
+            this.offsetInItem = offsetInItem;
+            this.height = height;
+        }
+    }
+    
+    /**
+     * Adds the images of a chapter to pages no taller than maxPageHeight.
+     * Images are stacked vertically at full width as on a single page, but the strip is cut into
+     * pages: an image crossing a page boundary is drawn on both pages, each clipped to its part
+     * (a tile), so the image is continuous across pages without seams and is embedded only once.
+     * Placeholders are never cut, they move to the next page. The last page only gets the height it needs.
+     * 
+     * @param imageItems Images and placeholders of the chapter, in order
+     * @param chapterTitle Title of the chapter to display at the top of the first page
+     * @param maxPageHeight Maximum page height in points
+     * @param targetDocument The document the pages are added to (the PDF or a chapter fragment)
+     */
+    private void addChapterImagePagesByHeight(java.util.List<ImageItem> imageItems, String chapterTitle,
+            float maxPageHeight, PDDocument targetDocument) throws IOException {
+        // Plan the pages first: each page is a list of slices, the first page starts below the title
+        java.util.List<java.util.List<PageSlice>> pages = new java.util.ArrayList<>();
+        java.util.List<Float> pageHeights = new java.util.ArrayList<>();
+        java.util.List<PageSlice> currentPage = new java.util.ArrayList<>();
+        float used = TITLE_HEIGHT;
+        for (ImageItem item : imageItems) {
+            if (item.isPlaceholder) {
+                if (used + PLACEHOLDER_HEIGHT > maxPageHeight) {
+                    pages.add(currentPage);
+                    pageHeights.add(used);
+                    currentPage = new java.util.ArrayList<>();
+                    used = 0f;
+                }
+                currentPage.add(new PageSlice(item, PLACEHOLDER_HEIGHT, 0f, PLACEHOLDER_HEIGHT));
+                used += PLACEHOLDER_HEIGHT;
+                continue;
+            }
+            
+            float itemHeight = item.image.getHeight() * (CONTENT_WIDTH / item.image.getWidth());
+            float offset = 0f;
+            while (itemHeight - offset > 0.5f) {
+                // Less than a point left: start a new page instead of drawing a sliver
+                if (maxPageHeight - used < 1f) {
+                    pages.add(currentPage);
+                    pageHeights.add(used);
+                    currentPage = new java.util.ArrayList<>();
+                    used = 0f;
+                }
+                float sliceHeight = Math.min(itemHeight - offset, maxPageHeight - used);
+                currentPage.add(new PageSlice(item, itemHeight, offset, sliceHeight));
+                used += sliceHeight;
+                offset += sliceHeight;
+            }
+        }
+        pages.add(currentPage);
+        pageHeights.add(used);
+        
+        PDType1Font regularFont = getRegularFont();
+        int pageCount = pages.size();
+        for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+            float pageHeight = pageHeights.get(pageIndex);
+            PDPage page = new PDPage(new PDRectangle(PAGE_WIDTH, pageHeight));
+            appendPage(targetDocument, page);
+            
+            try (PDPageContentStream contentStream = new PDPageContentStream(targetDocument, page)) {
+                float currentY = pageHeight;
+                if (pageIndex == 0) {
+                    drawChapterTitle(contentStream, chapterTitle, pageHeight);
+                    currentY = pageHeight - TITLE_HEIGHT;
+                }
+                
+                for (PageSlice slice : pages.get(pageIndex)) {
+                    float sliceTop = currentY;
+                    currentY -= slice.height;
+                    if (slice.item.isPlaceholder) {
+                        drawPlaceholder(contentStream, regularFont, slice.item.placeholderText, currentY);
+                    } else if (slice.height >= slice.itemHeight) {
+                        contentStream.drawImage(slice.item.image, MARGIN, currentY, CONTENT_WIDTH, slice.itemHeight);
+                    } else {
+                        // Tile: position the whole image so that this part falls on the page, clip to the part
+                        float imageBottom = sliceTop + slice.offsetInItem - slice.itemHeight;
+                        contentStream.saveGraphicsState();
+                        contentStream.addRect(MARGIN, currentY, CONTENT_WIDTH, slice.height);
+                        contentStream.clip();
+                        contentStream.drawImage(slice.item.image, MARGIN, imageBottom, CONTENT_WIDTH, slice.itemHeight);
+                        contentStream.restoreGraphicsState();
+                    }
+                }
+            }
+        }
+        
+        int totalImageCount = (int) imageItems.stream().filter(item -> !item.isPlaceholder).count();
+        int totalPlaceholderCount = (int) imageItems.stream().filter(item -> item.isPlaceholder).count();
+        logger.info("Chapter " + chapterTitle + " complete: " + totalImageCount + " images and " + 
+            totalPlaceholderCount + " placeholders across " + pageCount + " page(s) of at most " + maxPageHeight + " points");
+    }
+    
+    /**
+     * Draws the chapter title centered at the top of a page.
+     * 
+     * @param contentStream The content stream of the page
+     * @param pageTitle The title to draw
+     * @param pageHeight The height of the page
+     */
+    private void drawChapterTitle(PDPageContentStream contentStream, String pageTitle, float pageHeight) {
+        PDType1Font titleFont = getTitleFont();
+        if (titleFont == null) {
+            // Space is still reserved for the title, so images start below where it would be
+            logger.severe("Cannot draw chapter title - font unavailable for: " + pageTitle);
+            return;
+        }
+        try {
+            contentStream.setNonStrokingColor(0, 0, 0);
+            contentStream.beginText();
+            contentStream.setFont(titleFont, TITLE_FONT_SIZE);
+            float titleWidth = titleFont.getStringWidth(pageTitle) / 1000f * TITLE_FONT_SIZE;
+            float titleX = (PAGE_WIDTH - titleWidth) / 2f;
+            // Position title: Y coordinate from bottom of page (PDF coordinate system)
+            float titleY = pageHeight - TITLE_TOP_MARGIN;
+            contentStream.newLineAtOffset(titleX, titleY);
+            contentStream.showText(pageTitle);
+            contentStream.endText();
+            logger.info("Chapter title drawn at start of chapter: " + pageTitle + " at Y=" + titleY);
+        } catch (Exception e) {
+            logger.severe("Failed to draw chapter title: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Draws a placeholder text centered on a page, in gray.
+     * 
+     * @param contentStream The content stream of the page
+     * @param regularFont The font (nothing is drawn if null)
+     * @param text The placeholder text
+     * @param y The baseline of the text
+     */
+    private void drawPlaceholder(PDPageContentStream contentStream, PDType1Font regularFont, String text, float y) {
+        if (regularFont == null) {
+            return;
+        }
+        try {
+            contentStream.setNonStrokingColor(0.5f, 0.5f, 0.5f);
+            contentStream.beginText();
+            contentStream.setFont(regularFont, 12f);
+            float textWidth = regularFont.getStringWidth(text) / 1000f * 12f;
+            float textX = (PAGE_WIDTH - textWidth) / 2f;
+            contentStream.newLineAtOffset(textX, y);
+            contentStream.showText(text);
+            contentStream.endText();
+            contentStream.setNonStrokingColor(0, 0, 0);
+        } catch (Exception e) {
+            logger.warning("Failed to draw placeholder text: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Records the current heap usage if it is the highest seen so far.
+     */
+    private void samplePeakHeapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        peakHeapUsedBytes = Math.max(peakHeapUsedBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Replaces the flat page tree of the PDF by a balanced tree of at most PAGE_TREE_FANOUT kids per node,
+     * so viewers reach any page of a large volume in a few steps (3 levels hold 32768 pages).
+     * Pages keep their order; only the intermediate Pages nodes are new.
+     */
+    private void balancePageTree() {
+        int pageCount = documentPages.size();
+        if (pageCount <= PAGE_TREE_FANOUT) {
+            return; // The root holds all pages already
+        }
+        if (pageCount != document.getNumberOfPages()) {
+            logger.warning("PDF page tree not balanced: " + document.getNumberOfPages() + " pages in the document, " + 
+                pageCount + " tracked");
+            return;
+        }
+        
+        java.util.List<COSDictionary> nodes = new java.util.ArrayList<>(pageCount);
+        java.util.List<Integer> counts = new java.util.ArrayList<>(pageCount);
+        for (PDPage page : documentPages) {
+            nodes.add(page.getCOSObject());
+            counts.add(1);
+        }
+        
+        // Group nodes by PAGE_TREE_FANOUT, level by level, until the root can hold them
+        while (nodes.size() > PAGE_TREE_FANOUT) {
+            java.util.List<COSDictionary> parents = new java.util.ArrayList<>();
+            java.util.List<Integer> parentCounts = new java.util.ArrayList<>();
+            for (int start = 0; start < nodes.size(); start += PAGE_TREE_FANOUT) {
+                int end = Math.min(start + PAGE_TREE_FANOUT, nodes.size());
+                COSDictionary parent = new COSDictionary();
+                parent.setItem(COSName.TYPE, COSName.PAGES);
+                setKids(parent, nodes.subList(start, end));
+                int count = 0;
+                for (int i = start; i < end; i++) {
+                    count += counts.get(i);
+                }
+                parent.setInt(COSName.COUNT, count);
+                parents.add(parent);
+                parentCounts.add(count);
+            }
+            nodes = parents;
+            counts = parentCounts;
+        }
+        
+        COSDictionary root = document.getDocumentCatalog().getPages().getCOSObject();
+        setKids(root, nodes);
+        root.setInt(COSName.COUNT, pageCount);
+    }
+    
+    /**
+     * Sets the kids of a page tree node and their parent link.
+     */
+    private static void setKids(COSDictionary node, java.util.List<COSDictionary> kids) {
+        COSArray kidsArray = new COSArray();
+        for (COSDictionary kid : kids) {
+            kid.setItem(COSName.PARENT, node);
+            kidsArray.add(kid);
+        }
+        node.setItem(COSName.KIDS, kidsArray);
+    }
+
     /**
      * Saves the PDF to the output directory.
      * Creates bookmarks/outline for navigation to chapters.
@@ -894,12 +1623,9 @@ public class PdfBuilderService {
                 
                 for (ChapterInfo chapter : chapters) {
                     try {
-                        // Get the page (chapters are 1-indexed, pages are 0-indexed)
-                        PDPage page = document.getPage(chapter.pageNumber - 1);
-                        
-                        // Create destination for the page
+                        // Create destination for the first page of the chapter
                         PDPageFitDestination destination = new PDPageFitDestination();
-                        destination.setPage(page);
+                        destination.setPage(chapter.firstPage);
                         
                         // Create bookmark
                         PDOutlineItem bookmark = new PDOutlineItem();
@@ -923,11 +1649,34 @@ public class PdfBuilderService {
         String pdfFileName = sanitizedTitle + ".pdf";
         Path pdfFile = outputDir.resolve(pdfFileName);
         
+        if (prepareExecutor != null) {
+            prepareExecutor.shutdownNow();
+        }
+        
         // Write PDF
+        balancePageTree();
+        samplePeakHeapUsage();
         document.save(pdfFile.toFile());
+        samplePeakHeapUsage();
         document.close();
         
         logger.info("PDF saved to: " + pdfFile.toAbsolutePath());
+        String memoryMsg = "PDF build peak heap usage: " + (peakHeapUsedBytes / (1024 * 1024)) + " MB (max heap: " + 
+            (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + " MB, PDF memory limit: " + 
+            (memoryLimitMb < 0 ? "none" : memoryLimitMb + " MB") + ")";
+        logger.info(memoryMsg);
+        System.out.println(memoryMsg);
+        String imagesMsg = "PDF images: " + jpegPassthroughCount.get() + " JPEG taken as-is, " + 
+            decodedImageCount.get() + " decoded and re-encoded, " + dedupedImageCount.get() + 
+            " duplicates drawn by reference (" + (embeddedImages.size() + fragmentImages.size()) + " distinct images embedded)";
+        logger.info(imagesMsg);
+        System.out.println(imagesMsg);
+        if (fragmentCacheDir != null) {
+            String fragmentsMsg = "PDF chapter fragments: " + fragmentHits.get() + " reused from cache, " + 
+                fragmentsRendered.get() + " rendered";
+            logger.info(fragmentsMsg);
+            System.out.println(fragmentsMsg);
+        }
         return pdfFile;
     }
 }
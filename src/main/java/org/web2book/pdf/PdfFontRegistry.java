@@ -0,0 +1,144 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-28
+package org.web2book.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.encoding.Encoding;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Fonts shared by all PdfBuilderService instances, initialized once when the class is loaded.
+ * The registry is immutable after initialization, so concurrent builders read it without locking.
+ * PDFBox fills per-font caches lazily (glyph widths, encoded bytes per character) in plain HashMaps,
+ * which is not safe when several volumes are built at once: every character of the WinAnsi encoding
+ * is measured and encoded here up front, so these caches are only read afterwards.
+ */
+public final class PdfFontRegistry {
+    private static final PdfFontRegistry INSTANCE = new PdfFontRegistry();
+
+    private final PDType1Font titleFont;
+    private final PDType1Font regularFont;
+    private final String failureReason;
+    private final long initTimeMs;
+
+    private PdfFontRegistry() {
+        long startTime = System.nanoTime();
+
+        // Set system properties before any font operations (no system font scan or font cache file)
+        if (System.getProperty("org.apache.pdfbox.forceSystemFontScan") == null) {
+            System.setProperty("org.apache.pdfbox.forceSystemFontScan", "false");
+        }
+        if (System.getProperty("pdfbox.fontcache") == null) {
+            System.setProperty("pdfbox.fontcache", "false");
+        }
+        if (System.getProperty("org.apache.pdfbox.disableFontCache") == null) {
+            System.setProperty("org.apache.pdfbox.disableFontCache", "true");
+        }
+
+        PDType1Font title = null;
+        PDType1Font regular = null;
+        String failure = null;
+        try {
+            // PDFBox 2.0.x uses static fields for Standard14 fonts
+            title = PDType1Font.HELVETICA_BOLD;
+            regular = PDType1Font.HELVETICA;
+            prewarm(title);
+            prewarm(regular);
+        } catch (NoClassDefFoundError e) {
+            failure = "Font provider unavailable (NoClassDefFoundError): " + e.getMessage();
+        } catch (ExceptionInInitializerError e) {
+            failure = "Font provider initialization failed (ExceptionInInitializerError): " +
+                (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (LinkageError e) {
+            failure = "Font provider unavailable (LinkageError): " + e.getMessage();
+        } catch (Exception e) {
+            failure = "Font initialization failed: " + e.getMessage();
+        }
+
+        this.titleFont = failure == null ? title : null;
+        this.regularFont = failure == null ? regular : null;
+        this.failureReason = failure;
+        this.initTimeMs = (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    /**
+     * Fills the lazy caches of a font for every character of its encoding.
+     */
+    private static void prewarm(PDType1Font font) throws Exception {
+        font.getFontMatrix();
+        font.getBoundingBox();
+        font.isSymbolic();
+        font.getAverageFontWidth();
+        font.getSpaceWidth();
+
+        Encoding encoding = font.getEncoding();
+        GlyphList glyphList = GlyphList.getAdobeGlyphList();
+        StringBuilder encodable = new StringBuilder();
+        for (Map.Entry<Integer, String> entry : encoding.getCodeToNameMap().entrySet()) {
+            font.getWidth(entry.getKey());
+            String unicode = glyphList.toUnicode(entry.getValue());
+            if (unicode != null && encodable.indexOf(unicode) < 0) {
+                encodable.append(unicode);
+            }
+        }
+        // Same calls as the text drawing code: encoded bytes and widths of each character
+        font.encode(encodable.toString());
+        font.getStringWidth(encodable.toString());
+    }
+
+    /**
+     * Initializes the registry (if not done yet) and logs its initialization time, or why fonts are unavailable.
+     * Called once at startup so the cost is paid and measured before any book is built.
+     *
+     * @param logger Logger for the initialization report
+     * @return The registry
+     */
+    public static PdfFontRegistry initialize(Logger logger) {
+        if (INSTANCE.failureReason != null) {
+            logger.severe(INSTANCE.failureReason);
+            System.err.println("ERROR: " + INSTANCE.failureReason);
+            System.err.println("PDF text will not be visible. This is a known issue with PDFBox font initialization on some systems.");
+        } else {
+            logger.info("PDF fonts initialized in " + INSTANCE.initTimeMs + " ms");
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @return The shared registry
+     */
+    public static PdfFontRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The font of titles (Helvetica Bold), or null if fonts are unavailable
+     */
+    public PDType1Font getTitleFont() {
+        return titleFont;
+    }
+
+    /**
+     * @return The font of regular text (Helvetica), or null if fonts are unavailable
+     */
+    public PDType1Font getRegularFont() {
+        return regularFont;
+    }
+
+    /**
+     * @return Why fonts are unavailable, or null if they were initialized
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * @return Time spent initializing and pre-warming the fonts, in milliseconds
+     */
+    public long getInitTimeMs() {
+        return initTimeMs;
+    }
+}
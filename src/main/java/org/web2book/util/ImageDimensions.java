@@ -0,0 +1,201 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-28
+package org.web2book.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Width and height of an image, in pixels.
+ * For fixed-layout EPUBs, dimensions are recorded once per chapter after its images are downloaded
+ * or resized, in a dimensions.properties file next to the images (filename=WIDTHxHEIGHT), so the
+ * builders know the size of every image without opening it. Files without a recorded size are
+ * measured from their header (JPEG frame header, PNG IHDR chunk, GIF screen descriptor, WebP
+ * VP8/VP8L/VP8X chunk); pixels are never decoded.
+ */
+public class ImageDimensions {
+    /** Name of the file holding the dimensions of the images of a directory */
+    public static final String SIDECAR_FILENAME = "dimensions.properties";
+
+    // One lock per image directory: chapters and books record their images in parallel
+    private static final Map<Path, Object> DIRECTORY_LOCKS = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+
+    public ImageDimensions(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Reads the dimensions of an image from its header.
+     *
+     * @param file The image file
+     * @return The dimensions, or null if the format is not recognized or the header is truncated
+     * @throws IOException If the file cannot be read
+     */
+    public static ImageDimensions readHeader(Path file) throws IOException {
+        byte[] header = new byte[32];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.readNBytes(header, 0, header.length);
+        }
+        if (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8) {
+            JpegHeader jpeg = JpegHeader.read(file);
+            return jpeg != null && jpeg.getWidth() > 0 && jpeg.getHeight() > 0 ?
+                new ImageDimensions(jpeg.getWidth(), jpeg.getHeight()) : null;
+        }
+        ImageDimensions dimensions = null;
+        if (length >= 24 && startsWith(header, 0, "\u0089PNG\r\n\u001a\n") && startsWith(header, 12, "IHDR")) {
+            dimensions = new ImageDimensions(int32(header, 16), int32(header, 20));
+        } else if (length >= 10 && (startsWith(header, 0, "GIF87a") || startsWith(header, 0, "GIF89a"))) {
+            dimensions = new ImageDimensions(uint16le(header, 6), uint16le(header, 8));
+        } else if (length >= 30 && startsWith(header, 0, "RIFF") && startsWith(header, 8, "WEBP")) {
+            if (startsWith(header, 12, "VP8 ")) {
+                // Lossy: frame tag (3 bytes) and start code (3 bytes), then 14-bit width and height
+                dimensions = new ImageDimensions(uint16le(header, 26) & 0x3FFF, uint16le(header, 28) & 0x3FFF);
+            } else if (startsWith(header, 12, "VP8L") && (header[20] & 0xFF) == 0x2F) {
+                // Lossless: signature byte, then width - 1 and height - 1 on 14 bits each
+                int bits = (header[21] & 0xFF) | (header[22] & 0xFF) << 8 | (header[23] & 0xFF) << 16 |
+                    (header[24] & 0xFF) << 24;
+                dimensions = new ImageDimensions((bits & 0x3FFF) + 1, ((bits >>> 14) & 0x3FFF) + 1);
+            } else if (startsWith(header, 12, "VP8X")) {
+                // Extended: canvas width - 1 and height - 1 on 24 bits each
+                dimensions = new ImageDimensions(uint24le(header, 24) + 1, uint24le(header, 27) + 1);
+            }
+        }
+        return dimensions != null && dimensions.width > 0 && dimensions.height > 0 ? dimensions : null;
+    }
+
+    /**
+     * Records the dimensions of images of a directory in its dimensions file, in a single write.
+     * Writers of the same directory are serialized (each directory has its own lock) and the file
+     * is replaced atomically; dimensions recorded earlier for other images are kept.
+     *
+     * @param directory The image directory
+     * @param dimensionsByName The dimensions by image filename
+     * @throws IOException If the dimensions file cannot be read or written
+     */
+    public static void recordAll(Path directory, Map<String, ImageDimensions> dimensionsByName) throws IOException {
+        if (dimensionsByName.isEmpty()) {
+            return;
+        }
+        Object lock = DIRECTORY_LOCKS.computeIfAbsent(directory.toAbsolutePath().normalize(), d -> new Object());
+        synchronized (lock) {
+            Path sidecar = directory.resolve(SIDECAR_FILENAME);
+            Properties properties = loadProperties(sidecar);
+            boolean changed = false;
+            for (Map.Entry<String, ImageDimensions> entry : dimensionsByName.entrySet()) {
+                String value = entry.getValue().toString();
+                if (!value.equals(properties.getProperty(entry.getKey()))) {
+                    properties.setProperty(entry.getKey(), value);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return;
+            }
+            Path partFile = directory.resolve(SIDECAR_FILENAME + ".part");
+            try {
+                try (OutputStream out = Files.newOutputStream(partFile)) {
+                    properties.store(out, "Image dimensions (width x height), recorded by Web2Book");
+                }
+                try {
+                    Files.move(partFile, sidecar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(partFile, sidecar, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(partFile);
+            }
+        }
+    }
+
+    /**
+     * Loads the dimensions recorded for the images of a directory.
+     *
+     * @param directory The image directory
+     * @return The dimensions by image filename, empty if none were recorded
+     * @throws IOException If the dimensions file exists but cannot be read
+     */
+    public static Map<String, ImageDimensions> load(Path directory) throws IOException {
+        Map<String, ImageDimensions> dimensionsByName = new HashMap<>();
+        Properties properties = loadProperties(directory.resolve(SIDECAR_FILENAME));
+        for (String filename : properties.stringPropertyNames()) {
+            ImageDimensions dimensions = parse(properties.getProperty(filename));
+            if (dimensions != null) {
+                dimensionsByName.put(filename, dimensions);
+            }
+        }
+        return dimensionsByName;
+    }
+
+    private static Properties loadProperties(Path sidecar) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(sidecar)) {
+            try (InputStream in = Files.newInputStream(sidecar)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return The dimensions of a WIDTHxHEIGHT value, or null if it is malformed
+     */
+    private static ImageDimensions parse(String value) {
+        int separator = value.indexOf('x');
+        try {
+            int width = Integer.parseInt(value.substring(0, Math.max(separator, 0)).trim());
+            int height = Integer.parseInt(value.substring(separator + 1).trim());
+            return width > 0 && height > 0 ? new ImageDimensions(width, height) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if ((data[offset + i] & 0xFF) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int int32(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 |
+            (data[offset + 3] & 0xFF);
+    }
+
+    private static int uint16le(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int uint24le(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16;
+    }
+}
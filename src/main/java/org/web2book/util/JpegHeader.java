@@ -0,0 +1,138 @@
+// Generated code - Model: Auto (Cursor AI)
+// Date: 2025-11-27
+package org.web2book.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the frame header (SOF marker) of a JPEG file without decoding any pixels.
+ * Only the markers before the first frame header are read, usually a few kilobytes.
+ */
+public class JpegHeader {
+    private final int width;
+    private final int height;
+    private final int components;
+    private final int precision;
+    private final int frameType;
+
+    private JpegHeader(int width, int height, int components, int precision, int frameType) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.precision = precision;
+        this.frameType = frameType;
+    }
+
+    /**
+     * Reads the frame header of a file.
+     *
+     * @param file The file to read
+     * @return The header, or null if the file is not a JPEG or has no frame header
+     * @throws IOException If the file cannot be read
+     */
+    public static JpegHeader read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the frame header from the start of a JPEG stream.
+     *
+     * @param input The stream, positioned at the start of the JPEG data
+     * @return The header, or null if the stream is not a JPEG or has no frame header
+     * @throws IOException If the stream cannot be read
+     */
+    public static JpegHeader read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 8192));
+        try {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != 0xD8) {
+                return null; // No SOI marker
+            }
+            while (true) {
+                int marker = nextMarker(in);
+                if (marker == 0xD9 || marker == 0xDA) {
+                    return null; // End of image or start of scan before any frame header
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue; // Standalone markers without length
+                }
+                int length = in.readUnsignedShort();
+                if (length < 2) {
+                    return null;
+                }
+                if (isFrameHeader(marker)) {
+                    int precision = in.readUnsignedByte();
+                    int height = in.readUnsignedShort();
+                    int width = in.readUnsignedShort();
+                    int components = in.readUnsignedByte();
+                    return new JpegHeader(width, height, components, precision, marker);
+                }
+                skipFully(in, length - 2);
+            }
+        } catch (EOFException e) {
+            return null; // Truncated file
+        }
+    }
+
+    /**
+     * Returns whether the image can be embedded as-is in a PDF DCTDecode stream:
+     * 8-bit baseline, extended or progressive Huffman coding, gray or RGB (YCbCr) components.
+     * CMYK, 12-bit and arithmetic-coded images are better decoded first.
+     *
+     * @return true if the original bytes can be embedded
+     */
+    public boolean isPdfPassthroughCompatible() {
+        boolean huffman = frameType == 0xC0 || frameType == 0xC1 || frameType == 0xC2;
+        return huffman && precision == 8 && (components == 1 || components == 3) && width > 0 && height > 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static boolean isFrameHeader(int marker) {
+        // SOF0-SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int nextMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        while (b != 0xFF) {
+            b = in.readUnsignedByte(); // Garbage between segments
+        }
+        while (b == 0xFF) {
+            b = in.readUnsignedByte(); // Fill bytes
+        }
+        return b;
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}